@@ -0,0 +1,184 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.bench;
+
+import de.webis.chatnoir2.indexer.mapreduce.WarcAnchorMapper;
+import de.webis.chatnoir2.indexer.mapreduce.WarcMapReduceBase;
+import de.webis.chatnoir2.indexer.util.AnchorRecordParser;
+import de.webis.chatnoir2.indexer.util.FieldKeyCache;
+import de.webis.chatnoir2.indexer.util.LangDetector;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Per-line cost of the anchor mapper with the former regex parser and with {@link AnchorRecordParser}.
+ * Both variants decode the record ID to a string and fill the output map like the mapper does, so only
+ * parsing, truncation and field key construction differ. Deriving the join key from the ID string is the
+ * same in both variants and not measured. Language detection is left out unless requested, since it
+ * usually dominates the total cost.
+ *
+ * Arguments: [lines (1000000)] [rounds (5)] [detect]
+ *
+ * @author Janek Bevendorff
+ */
+public class AnchorParserBenchmark
+{
+    private static final Pattern REGEX = Pattern.compile("(clueweb\\d{2}-\\w{2}\\d{4}-\\d{2}-\\d{5})\\s+(.*)");
+
+    private static final String[] WORDS = {"home", "page", "contact", "über", "uns", "impressum", "click",
+            "here", "download", "the", "latest", "version", "news", "archive", "größe", "weather", "forecast"};
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int numLines  = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final boolean detect = args.length > 2 && args[2].equals("detect");
+
+        final List<Text> lines = generateLines(numLines);
+        final LangDetector detector = detect ? LangDetector.getInstance() : null;
+        System.out.printf("%d lines, %d rounds, language detection %s, Java %s%n",
+                numLines, numRounds, detect ? "on" : "off", System.getProperty("java.version"));
+
+        // warm-up
+        runRegex(lines, detector);
+        runParser(lines, detector);
+
+        long regexNanos = Long.MAX_VALUE;
+        long parserNanos = Long.MAX_VALUE;
+        for (int i = 0; i < numRounds; ++i) {
+            regexNanos = Math.min(regexNanos, runRegex(lines, detector));
+            parserNanos = Math.min(parserNanos, runParser(lines, detector));
+        }
+        report("regex", regexNanos, numLines);
+        report("AnchorRecordParser", parserNanos, numLines);
+        System.out.printf("speedup: %.2fx%n", (double) regexNanos / parserNanos);
+        if (0 == sSink) {
+            System.out.println();
+        }
+    }
+
+    private static void report(final String name, final long nanos, final int numLines)
+    {
+        System.out.printf("%-20s %8.1f ns/line %12.0f lines/s%n", name, (double) nanos / numLines,
+                numLines / (nanos / 1e9));
+    }
+
+    /**
+     * Anchor lines with random non-empty texts of up to twice the maximum length, every tenth line without a valid ID.
+     */
+    private static List<Text> generateLines(final int numLines)
+    {
+        final Random random = new Random(42);
+        final List<Text> lines = new ArrayList<>(numLines);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numLines; ++i) {
+            sb.setLength(0);
+            if (i % 10 == 9) {
+                sb.append("invalid-").append(i);
+            } else {
+                sb.append(String.format("clueweb09-en%04d-%02d-%05d", i % 10000, i % 100, i % 100000));
+            }
+            sb.append('\t');
+            final int length = sb.length() + random.nextInt(2 * WarcAnchorMapper.MAX_LENGTH);
+            do {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            } while (sb.length() < length);
+            lines.add(new Text(sb.toString()));
+        }
+        return lines;
+    }
+
+    private static int sAccepted;
+
+    /**
+     * Consumes the decoded IDs, so the JIT can't drop decoding.
+     */
+    private static int sSink;
+
+    private static long runRegex(final List<Text> lines, final LangDetector detector) throws IOException
+    {
+        final Text value = new Text();
+        final MapWritable output = new MapWritable();
+        int accepted = 0;
+        final long start = System.nanoTime();
+        for (final Text line : lines) {
+            final Matcher m = REGEX.matcher(line.toString());
+            if (!m.matches() || null == m.group(1) || null == m.group(2)) {
+                continue;
+            }
+            String anchorValue = m.group(2);
+            if (WarcAnchorMapper.MAX_LENGTH < anchorValue.length()) {
+                anchorValue = anchorValue.substring(0, WarcAnchorMapper.MAX_LENGTH);
+            }
+            sSink += m.group(1).hashCode();
+            final String lang = null != detector ? detector.detect(anchorValue) : "en";
+            output.clear();
+            value.set(anchorValue);
+            output.put(new Text(WarcMapReduceBase.ANCHOR_TEXTS_KEY_PREFIX + lang), value);
+            ++accepted;
+        }
+        final long nanos = System.nanoTime() - start;
+        sAccepted = accepted;
+        return nanos;
+    }
+
+    private static long runParser(final List<Text> lines, final LangDetector detector) throws IOException
+    {
+        final AnchorRecordParser parser = new AnchorRecordParser(AnchorRecordParser.IdScheme.TREC_ID,
+                WarcAnchorMapper.MAX_LENGTH);
+        final FieldKeyCache fieldKeys = new FieldKeyCache(WarcMapReduceBase.ANCHOR_TEXTS_KEY_PREFIX);
+        final Text value = new Text();
+        final MapWritable output = new MapWritable();
+        int accepted = 0;
+        final long start = System.nanoTime();
+        for (final Text line : lines) {
+            if (!parser.parse(line)) {
+                continue;
+            }
+            final byte[] bytes = parser.getBytes();
+            sSink += Text.decode(bytes, parser.getIdStart(), parser.getIdLength()).hashCode();
+            final String anchorValue = Text.decode(bytes, parser.getTextStart(), parser.getTextLength());
+            final String lang = null != detector ? detector.detect(anchorValue) : "en";
+            output.clear();
+            value.set(bytes, parser.getTextStart(), parser.getTextLength());
+            output.put(fieldKeys.get(lang), value);
+            ++accepted;
+        }
+        final long nanos = System.nanoTime() - start;
+        if (accepted != sAccepted) {
+            throw new IllegalStateException(String.format("Regex accepted %d lines, parser %d", sAccepted, accepted));
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.bench;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.counters.GenericCounter;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Task attempt context with working counters for running record readers, writers and mappers
+ * outside of a MapReduce job.
+ *
+ * @author Janek Bevendorff
+ */
+public class BenchmarkContext extends TaskAttemptContextImpl
+{
+    private final Map<String, Counter> mCounters = new ConcurrentHashMap<>();
+
+    /**
+     * @param conf task configuration
+     */
+    public BenchmarkContext(final Configuration conf)
+    {
+        super(conf, TaskAttemptID.forName("attempt_1_0001_r_000000_0"));
+    }
+
+    @Override
+    public Counter getCounter(final Enum<?> counterName)
+    {
+        return getCounter(counterName.getDeclaringClass().getName(), counterName.name());
+    }
+
+    @Override
+    public Counter getCounter(final String groupName, final String counterName)
+    {
+        return mCounters.computeIfAbsent(groupName + "\t" + counterName, k -> new GenericCounter(counterName, counterName));
+    }
+}
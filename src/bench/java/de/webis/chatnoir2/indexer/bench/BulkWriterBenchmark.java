@@ -0,0 +1,160 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.bench;
+
+import com.sun.net.httpserver.HttpServer;
+import de.webis.chatnoir2.indexer.mapreduce.EsBulkOutputFormat;
+import de.webis.chatnoir2.indexer.mapreduce.WarcMapReduceBase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link EsBulkOutputFormat} against a local mock Elasticsearch node which answers each
+ * bulk request after a fixed latency, with increasing numbers of requests in flight. One request in flight
+ * is the baseline, since es-hadoop's output format waits for each bulk request to finish as well.
+ *
+ * Arguments: [documents (50000)] [latency in ms (40)] [documents per bulk request (500)]
+ *
+ * @author Janek Bevendorff
+ */
+public class BulkWriterBenchmark
+{
+    private static final int[] CONCURRENCY_LEVELS = {1, 2, 4, 8, 16};
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int numDocs   = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final int latencyMs = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        final int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+        final AtomicLong indexed = new AtomicLong();
+        final HttpServer server = startMockNode(latencyMs, indexed);
+        final int port = server.getAddress().getPort();
+        System.out.printf("%d documents, %d ms latency, %d documents per request, Java %s%n",
+                numDocs, latencyMs, batchSize, System.getProperty("java.version"));
+
+        try {
+            // warm-up
+            run(new EsBulkOutputFormat(), newConf(port, batchSize, 4), numDocs / 10);
+
+            for (final int concurrency : CONCURRENCY_LEVELS) {
+                indexed.set(0);
+                report("EsBulkOutputFormat, " + concurrency + " in flight",
+                        run(new EsBulkOutputFormat(), newConf(port, batchSize, concurrency), numDocs),
+                        numDocs, indexed.get());
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void report(final String name, final long nanos, final int numDocs, final long indexed)
+    {
+        if (indexed != numDocs) {
+            throw new IllegalStateException(String.format("%s: indexed %d of %d documents", name, indexed, numDocs));
+        }
+        System.out.printf("%-36s %9.0f docs/s%n", name, numDocs / (nanos / 1e9));
+    }
+
+    private static Configuration newConf(final int port, final int batchSize, final int concurrency)
+    {
+        final Configuration conf = new Configuration(false);
+        conf.set("es.nodes", "localhost:" + port);
+        conf.set("es.resource", "bench/_doc");
+        conf.set("es.batch.size.entries", String.valueOf(batchSize));
+        conf.set("es.batch.size.bytes", "64mb");
+        conf.setInt(WarcMapReduceBase.CONF_BULK_CONCURRENCY, concurrency);
+        return conf;
+    }
+
+    private static long run(final EsBulkOutputFormat format, final Configuration conf, final int numDocs)
+            throws IOException, InterruptedException
+    {
+        final TaskAttemptContext context = new BenchmarkContext(conf);
+        final Text doc = new Text();
+        final long start = System.nanoTime();
+        final RecordWriter<Writable, Text> writer = format.getRecordWriter(context);
+        for (int i = 0; i < numDocs; ++i) {
+            doc.set("{\"uuid\":\"" + new UUID(i, i) + "\",\"body_lang.en\":\"" +
+                    "Lorem ipsum dolor sit amet, consectetur adipiscing elit. ".repeat(20) + "\"}");
+            writer.write(NullWritable.get(), doc);
+        }
+        writer.close(context);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Mock node which acknowledges all bulk items.
+     */
+    private static HttpServer startMockNode(final int latencyMs, final AtomicLong indexed) throws IOException
+    {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            final byte[] request = exchange.getRequestBody().readAllBytes();
+            final String path = exchange.getRequestURI().getPath();
+            final String response;
+            if (path.endsWith("/_bulk")) {
+                int lines = 0;
+                for (final byte b : request) {
+                    lines += b == '\n' ? 1 : 0;
+                }
+                final StringBuilder items = new StringBuilder("{\"took\":1,\"errors\":false,\"items\":[");
+                for (int i = 0; i < lines / 2; ++i) {
+                    items.append(i > 0 ? "," : "").append("{\"index\":{\"status\":201}}");
+                }
+                response = items.append("]}").toString();
+                indexed.addAndGet(lines / 2);
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                response = "{}";
+            }
+            final byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.bench;
+
+import de.webis.chatnoir2.indexer.util.HttpDateParser;
+import org.apache.hadoop.io.Text;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Per-header cost of converting HTTP <code>Date</code> headers to ISO 8601 with the former
+ * {@link SimpleDateFormat} path (new formatters and {@link Calendar} per header, as the mapper did)
+ * and with {@link HttpDateParser}. The input is mostly IMF-fixdate with some RFC 850, asctime and
+ * malformed dates, which the former path rejects.
+ *
+ * Arguments: [headers (1000000)] [rounds (5)]
+ *
+ * @author Janek Bevendorff
+ */
+public class HttpDateParserBenchmark
+{
+    private static final String[] WEEKDAYS = {"Sunday", "Monday", "Tuesday", "Wednesday", "Thursday",
+            "Friday", "Saturday"};
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int numHeaders = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int numRounds  = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final List<String> headers = generateHeaders(numHeaders);
+        System.out.printf("%d headers, %d rounds, Java %s%n", numHeaders, numRounds,
+                System.getProperty("java.version"));
+
+        // warm-up
+        runSimpleDateFormat(headers);
+        runHttpDateParser(headers);
+
+        long formatNanos = Long.MAX_VALUE;
+        long parserNanos = Long.MAX_VALUE;
+        int formatParsed = 0;
+        int parserParsed = 0;
+        for (int i = 0; i < numRounds; ++i) {
+            long start = System.nanoTime();
+            formatParsed = runSimpleDateFormat(headers);
+            formatNanos = Math.min(formatNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            parserParsed = runHttpDateParser(headers);
+            parserNanos = Math.min(parserNanos, System.nanoTime() - start);
+        }
+        report("SimpleDateFormat", formatNanos, numHeaders, formatParsed);
+        report("HttpDateParser", parserNanos, numHeaders, parserParsed);
+        System.out.printf("speedup: %.2fx%n", (double) formatNanos / parserNanos);
+    }
+
+    private static void report(final String name, final long nanos, final int numHeaders, final int numParsed)
+    {
+        System.out.printf("%-18s %8.1f ns/header %12.0f headers/s %6.1f%% parsed%n", name,
+                (double) nanos / numHeaders, numHeaders / (nanos / 1e9), 100.0 * numParsed / numHeaders);
+    }
+
+    private static List<String> generateHeaders(final int numHeaders)
+    {
+        final Random random = new Random(42);
+        final List<String> headers = new ArrayList<>(numHeaders);
+        for (int i = 0; i < numHeaders; ++i) {
+            final String weekday = WEEKDAYS[random.nextInt(WEEKDAYS.length)];
+            final String shortWeekday = weekday.substring(0, 3);
+            final String month = MONTHS[random.nextInt(MONTHS.length)];
+            final int day = 1 + random.nextInt(28);
+            final int year = 1995 + random.nextInt(30);
+            final String time = String.format("%02d:%02d:%02d",
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            switch (i % 20) {
+                case 17:
+                    headers.add(String.format("%s, %02d-%s-%02d %s GMT", weekday, day, month, year % 100, time));
+                    break;
+                case 18:
+                    headers.add(String.format("%s %s %2d %s %d", shortWeekday, month, day, time, year));
+                    break;
+                case 19:
+                    headers.add(String.format("%d %s %d %s +0200", day, month, year, time));
+                    break;
+                default:
+                    headers.add(String.format("%s, %02d %s %d %s GMT", shortWeekday, day, month, year, time));
+            }
+        }
+        return headers;
+    }
+
+    private static int runSimpleDateFormat(final List<String> headers)
+    {
+        final Text value = new Text();
+        int parsed = 0;
+        for (final String header : headers) {
+            final Calendar c = Calendar.getInstance();
+            final SimpleDateFormat dfInput  = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            final SimpleDateFormat dfOutput = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
+            try {
+                c.setTime(dfInput.parse(header));
+                value.set(dfOutput.format(c.getTime()));
+                ++parsed;
+            } catch (ParseException ignored) { }
+        }
+        return parsed;
+    }
+
+    private static int runHttpDateParser(final List<String> headers)
+    {
+        final HttpDateParser parser = new HttpDateParser();
+        final Text value = new Text();
+        int parsed = 0;
+        for (final String header : headers) {
+            final long date = HttpDateParser.parse(header);
+            if (HttpDateParser.INVALID != date) {
+                parser.formatIso(date, value);
+                ++parsed;
+            }
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.bench;
+
+import de.webis.chatnoir2.indexer.mapreduce.WarcMapReduceBase;
+import de.webis.chatnoir2.indexer.util.JsonDocumentSerializer;
+import org.apache.hadoop.io.*;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Reducer CPU time per document for serializing output documents to JSON with {@link JsonDocumentSerializer}
+ * and with the generic {@link MapWritable} path es-hadoop used before. The baseline mirrors es-hadoop's
+ * <code>WritableValueWriter</code>, which walks the map, converts keys and {@link Text} values to Java strings
+ * and writes them with Jackson 1.x (Hadoop's <code>jackson-core-asl</code>, as used by es-hadoop).
+ * Both variants produce the same JSON.
+ *
+ * Arguments: [documents (20000)] [rounds (5)]
+ *
+ * @author Janek Bevendorff
+ */
+public class SerializerBenchmark
+{
+    private static final String[] WORDS = {"the", "search", "engine", "index", "Suchmaschine", "über",
+            "documents", "\"quoted\"", "ClueWeb", "crawl", "página", "web", "archive", "line\nbreak", "tab\there"};
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int numDocs   = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final List<MapWritable> docs = generateDocuments(numDocs);
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        System.out.printf("%d documents, %d rounds, Java %s%n", numDocs, numRounds,
+                System.getProperty("java.version"));
+
+        final JsonDocumentSerializer serializer = new JsonDocumentSerializer();
+        final WritableJsonWriter baseline = new WritableJsonWriter();
+        final Text json = new Text();
+        for (final MapWritable doc : docs) {
+            serializer.serialize(doc, json);
+            final byte[] expected = json.copyBytes();
+            if (!Text.decode(expected).equals(Text.decode(baseline.write(doc)))) {
+                throw new IllegalStateException("Serializers produced different JSON");
+            }
+        }
+
+        long baselineNanos = Long.MAX_VALUE;
+        long serializerNanos = Long.MAX_VALUE;
+        long numBytes = 0;
+        for (int i = 0; i < numRounds; ++i) {
+            long start = threadBean.getCurrentThreadCpuTime();
+            for (final MapWritable doc : docs) {
+                baseline.write(doc);
+            }
+            baselineNanos = Math.min(baselineNanos, threadBean.getCurrentThreadCpuTime() - start);
+
+            numBytes = 0;
+            start = threadBean.getCurrentThreadCpuTime();
+            for (final MapWritable doc : docs) {
+                serializer.serialize(doc, json);
+                numBytes += json.getLength();
+            }
+            serializerNanos = Math.min(serializerNanos, threadBean.getCurrentThreadCpuTime() - start);
+        }
+        System.out.printf("average document size: %d bytes%n", numBytes / numDocs);
+        report("MapWritable via Jackson", baselineNanos, numDocs);
+        report("JsonDocumentSerializer", serializerNanos, numDocs);
+        System.out.printf("speedup: %.2fx%n", (double) baselineNanos / serializerNanos);
+    }
+
+    private static void report(final String name, final long cpuNanos, final int numDocs)
+    {
+        System.out.printf("%-24s %8.1f us CPU/doc %10.0f docs/s%n", name, cpuNanos / 1e3 / numDocs,
+                numDocs / (cpuNanos / 1e9));
+    }
+
+    /**
+     * Documents with the fields of a typical reducer output document and bodies of a few kilobytes.
+     */
+    private static List<MapWritable> generateDocuments(final int numDocs)
+    {
+        final Random random = new Random(42);
+        final List<MapWritable> docs = new ArrayList<>(numDocs);
+        for (int i = 0; i < numDocs; ++i) {
+            final MapWritable doc = new MapWritable();
+            doc.put(WarcMapReduceBase.DOCUMENT_UUID_KEY, new Text(new UUID(i, i).toString()));
+            doc.put(WarcMapReduceBase.WARC_TREC_ID_KEY,
+                    new Text(String.format("clueweb12-%04dtw-00-%05d", i % 10000, i % 100000)));
+            doc.put(WarcMapReduceBase.WARC_RECORD_ID_KEY, new Text("<urn:uuid:" + UUID.randomUUID() + ">"));
+            doc.put(WarcMapReduceBase.WARC_TARGET_URI_KEY, new Text("http://www.example.com/page/" + i + "?q=" + i));
+            doc.put(WarcMapReduceBase.WARC_TARGET_HOSTNAME_KEY, new Text("www.example.com"));
+            doc.put(WarcMapReduceBase.WARC_TARGET_PATH_KEY, new Text("/page/" + i));
+            doc.put(WarcMapReduceBase.WARC_TARGET_QUERY_STRING_KEY, new Text("q=" + i));
+            doc.put(WarcMapReduceBase.CONTENT_TYPE_KEY, new Text("text/html"));
+            doc.put(WarcMapReduceBase.LANG_KEY, new Text("en"));
+            doc.put(WarcMapReduceBase.DATE_KEY, new Text("2012-02-10T21:51:20Z"));
+            doc.put(WarcMapReduceBase.SPAM_RANK_KEY, new LongWritable(random.nextInt(100)));
+            doc.put(WarcMapReduceBase.PAGE_RANK_KEY, new FloatWritable(random.nextFloat()));
+            doc.put(WarcMapReduceBase.HOST_PAGE_COUNT_KEY, new LongWritable(random.nextInt(100000)));
+            doc.put(new Text("title_lang.en"), new Text(words(random, 10)));
+            doc.put(new Text("meta_desc_lang.en"), new Text(words(random, 30)));
+            doc.put(new Text("headings_lang.en"), new Text(words(random, 40)));
+            doc.put(new Text("snippets_lang.en"), new Text(words(random, 60)));
+            doc.put(new Text("anchor_texts_lang.en"), new ArrayWritable(Text.class,
+                    new Text[]{new Text(words(random, 5)), new Text(words(random, 5))}));
+            final String body = words(random, 300 + random.nextInt(1500));
+            doc.put(new Text("body_lang.en"), new Text(body));
+            doc.put(new Text("full_body_lang.en"), new Text(body + " " + words(random, 500)));
+            doc.put(WarcMapReduceBase.BODY_LENGTH_KEY, new LongWritable(body.length()));
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private static String words(final Random random, final int numWords)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numWords; ++i) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generic {@link Writable} to JSON conversion as done by es-hadoop's <code>WritableValueWriter</code>.
+     */
+    private static class WritableJsonWriter
+    {
+        private final JsonFactory mFactory = new JsonFactory();
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(65536);
+
+        byte[] write(final MapWritable doc) throws IOException
+        {
+            mOut.reset();
+            final JsonGenerator generator = mFactory.createJsonGenerator(mOut, JsonEncoding.UTF8);
+            writeValue(doc, generator);
+            generator.close();
+            return mOut.toByteArray();
+        }
+
+        private void writeValue(final Writable value, final JsonGenerator generator) throws IOException
+        {
+            if (null == value || value instanceof NullWritable) {
+                generator.writeNull();
+            } else if (value instanceof Text) {
+                generator.writeString(value.toString());
+            } else if (value instanceof LongWritable) {
+                generator.writeNumber(((LongWritable) value).get());
+            } else if (value instanceof IntWritable) {
+                generator.writeNumber(((IntWritable) value).get());
+            } else if (value instanceof FloatWritable) {
+                generator.writeNumber(((FloatWritable) value).get());
+            } else if (value instanceof DoubleWritable) {
+                generator.writeNumber(((DoubleWritable) value).get());
+            } else if (value instanceof BooleanWritable) {
+                generator.writeBoolean(((BooleanWritable) value).get());
+            } else if (value instanceof ArrayWritable) {
+                generator.writeStartArray();
+                for (final Writable element : ((ArrayWritable) value).get()) {
+                    writeValue(element, generator);
+                }
+                generator.writeEndArray();
+            } else if (value instanceof MapWritable) {
+                generator.writeStartObject();
+                for (final Map.Entry<Writable, Writable> entry : ((MapWritable) value).entrySet()) {
+                    generator.writeFieldName(entry.getKey().toString());
+                    writeValue(entry.getValue(), generator);
+                }
+                generator.writeEndObject();
+            } else {
+                generator.writeString(value.toString());
+            }
+        }
+    }
+}
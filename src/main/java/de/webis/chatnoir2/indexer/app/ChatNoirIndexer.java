@@ -26,25 +26,42 @@
 package de.webis.chatnoir2.indexer.app;
 
 import de.webis.chatnoir2.indexer.mapreduce.*;
+import de.webis.chatnoir2.indexer.util.EsShardRouting;
+import de.webis.chatnoir2.indexer.util.KeyBloomFilter;
+import de.webis.chatnoir2.indexer.util.LanguageFields;
 import org.apache.commons.cli.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
 import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobCounter;
 import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import org.elasticsearch.hadoop.mr.EsOutputFormat;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 
 /**
  * Elasticsearch Indexer for WARC JSON corpora using Hadoop MapReduce.
@@ -55,6 +72,17 @@ public class ChatNoirIndexer extends Configured implements Tool
 {
     private static final Logger LOG = Logger.getLogger(ChatNoirIndexer.class);
 
+    /**
+     * Counters of records which are skipped before the sampling decision is made.
+     */
+    private static final EnumSet<WarcMapReduceBase.RecordCounters> PRE_SAMPLE_COUNTERS = EnumSet.of(
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_JSON_PARSE_ERROR,
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_TOO_LARGE,
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_NO_RESPONSE_RECORD,
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_BINARY,
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_CONTENT_TYPE,
+            WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_NO_ID);
+
     private static final String[] SEQFILE_INPUT_OPTION     = { "sequence-files", "f" };
     private static final String[] UUID_PREFIX_INPUT_OPTION = { "uuid-prefix",    "u" };
     private static final String[] SPAMRANK_INPUT_OPTION    = { "spamranks",      "s" };
@@ -64,6 +92,26 @@ public class ChatNoirIndexer extends Configured implements Tool
     private static final String[] INPUT_PARTITIONS_OPTION  = { "partitions",     "t" };
     private static final String[] INPUT_BATCHES_OPTION     = { "batches",        "n" };
     private static final String[] INPUT_BATCH_NUM_OPTION   = { "batch-num",      "b" };
+    private static final String[] SHARD_ROUTING_OPTION     = { "shard-routing",  "r" };
+    private static final String[] JOIN_MODE_OPTION         = { "join-mode",      "j" };
+    private static final String[] HOST_STATS_OPTION        = { "host-stats",     "o" };
+    private static final String[] HOST_MAX_DOCS_OPTION     = { "host-max-docs",  "m" };
+    private static final String[] SPECULATIVE_OPTION       = { "speculative",    "x" };
+    private static final String[] COMPRESSION_OPTION       = { "compression",    "z" };
+    private static final String[] METRICS_FILE_OPTION      = { "metrics-file",   "q" };
+    private static final String[] SAMPLE_OPTION            = { "sample",         "y" };
+    private static final String[] DRY_RUN_OPTION           = { "dry-run",        "d" };
+    private static final String[] PRIORITY_OPTION          = { "priority",       "g" };
+    private static final String[] TIME_BUDGET_OPTION       = { "time-budget",    "w" };
+    private static final String[] SPAM_THRESHOLD_OPTION    = { "spam-threshold", "l" };
+    private static final String[] SPAM_FILTER_OPTION       = { "spam-filter",    "k" };
+    private static final String[] DEAD_LETTER_OPTION       = { "dead-letter",    "e" };
+    private static final String[] REPLAY_OPTION            = { "replay",         "v" };
+    private static final String[] BALANCE_SPLITS_OPTION    = { "balance-splits", "c" };
+    private static final String[] SPLIT_HISTORY_OPTION     = { "split-history",  "h" };
+    private static final String[] OUTLINKS_OPTION          = { "outlinks",       "L" };
+    private static final String[] BULK_CONCURRENCY_OPTION  = { "bulk-concurrency", "B" };
+    private static final String[] QUARANTINE_OPTION        = { "quarantine",     "Q" };
 
     /**
      * Run this tool.
@@ -136,6 +184,138 @@ public class ChatNoirIndexer extends Configured implements Tool
                 withDescription("which batch to run (default: 1)").
                 isRequired(false).
                 create(INPUT_BATCH_NUM_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("MODE").
+                hasArg().
+                withLongOpt(JOIN_MODE_OPTION[0]).
+                withDescription("join documents, ranks and anchors by 'id' or canonical 'url' (default: id)").
+                isRequired(false).
+                create(JOIN_MODE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(HOST_STATS_OPTION[0]).
+                withDescription("path for per-host statistics (computed in a pre-pass if it doesn't exist)").
+                isRequired(false).
+                create(HOST_STATS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(HOST_MAX_DOCS_OPTION[0]).
+                withDescription("maximum number of documents to index per host (requires host statistics)").
+                isRequired(false).
+                create(HOST_MAX_DOCS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(SHARD_ROUTING_OPTION[0]).
+                withDescription("route each reduce partition to exactly one index shard").
+                isRequired(false).
+                create(SHARD_ROUTING_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PROFILE").
+                hasArg().
+                withLongOpt(COMPRESSION_OPTION[0]).
+                withDescription("compression of intermediate data: none (default), fast or dense").
+                isRequired(false).
+                create(COMPRESSION_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(METRICS_FILE_OPTION[0]).
+                withDescription("local file to write job metrics to while the job is running " +
+                        "(Prometheus text format if the name ends with .prom, TSV otherwise)").
+                isRequired(false).
+                create(METRICS_FILE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("FRACTION").
+                hasArg().
+                withLongOpt(SAMPLE_OPTION[0]).
+                withDescription("only process a deterministic sample of documents (0.0-1.0)").
+                isRequired(false).
+                create(SAMPLE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(DRY_RUN_OPTION[0]).
+                withDescription("run the full pipeline without indexing and report estimates for the whole input").
+                isRequired(false).
+                create(DRY_RUN_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(PRIORITY_OPTION[0]).
+                withDescription("index documents in order of descending quality (spam rank and PageRank)").
+                isRequired(false).
+                create(PRIORITY_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("MINUTES").
+                hasArg().
+                withLongOpt(TIME_BUDGET_OPTION[0]).
+                withDescription("stop indexing after this many minutes (requires priority mode)").
+                isRequired(false).
+                create(TIME_BUDGET_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(SPAM_THRESHOLD_OPTION[0]).
+                withDescription("skip documents with a spam rank below this threshold or without spam rank (requires spam ranks)").
+                isRequired(false).
+                create(SPAM_THRESHOLD_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(SPAM_FILTER_OPTION[0]).
+                withDescription("path for a filter to apply the spam threshold before content extraction " +
+                        "(computed in a pre-pass if it doesn't exist)").
+                isRequired(false).
+                create(SPAM_FILTER_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(DEAD_LETTER_OPTION[0]).
+                withDescription("directory to write records and documents to which could not be indexed").
+                isRequired(false).
+                create(DEAD_LETTER_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(REPLAY_OPTION[0]).
+                withDescription("only index the records in this dead-letter directory").
+                isRequired(false).
+                create(REPLAY_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(BALANCE_SPLITS_OPTION[0]).
+                withDescription("plan about NUM input splits of equal estimated cost across all partitions").
+                isRequired(false).
+                create(BALANCE_SPLITS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(SPLIT_HISTORY_OPTION[0]).
+                withDescription("directory for per-partition processing times used for balancing splits").
+                isRequired(false).
+                create(SPLIT_HISTORY_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(OUTLINKS_OPTION[0]).
+                withDescription("extract anchor texts from outlinks of indexed documents (requires URL join mode)").
+                isRequired(false).
+                create(OUTLINKS_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("NUM").
+                hasArg().
+                withLongOpt(BULK_CONCURRENCY_OPTION[0]).
+                withDescription("send documents with NUM concurrent bulk requests per reducer instead of es-hadoop").
+                isRequired(false).
+                create(BULK_CONCURRENCY_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withArgName("PATH").
+                hasArg().
+                withLongOpt(QUARANTINE_OPTION[0]).
+                withDescription("skip records which crashed or hung a previous map attempt (markers are kept in PATH)").
+                isRequired(false).
+                create(QUARANTINE_OPTION[1]));
+        options.addOption(OptionBuilder.
+                withLongOpt(SPECULATIVE_OPTION[0]).
+                withDescription("enable speculative execution (documents are written with external versions)").
+                isRequired(false).
+                create(SPECULATIVE_OPTION[1]));
 
         CommandLine cmdline;
         final CommandLineParser parser = new GnuParser();
@@ -171,6 +351,27 @@ public class ChatNoirIndexer extends Configured implements Tool
         if (null != batchNumStr) {
             batchNum = Math.max(0, Integer.parseInt(batchNumStr) - 1);
         }
+        final boolean shardRouting = cmdline.hasOption(SHARD_ROUTING_OPTION[0]);
+        final String joinMode = cmdline.getOptionValue(JOIN_MODE_OPTION[0], "id");
+        final String hostStatsPath = cmdline.getOptionValue(HOST_STATS_OPTION[0]);
+        final String hostMaxDocsStr = cmdline.getOptionValue(HOST_MAX_DOCS_OPTION[0]);
+        final boolean speculative = cmdline.hasOption(SPECULATIVE_OPTION[0]);
+        final CompressionProfile compression = CompressionProfile.fromName(
+                cmdline.getOptionValue(COMPRESSION_OPTION[0], "none"));
+        final String metricsFile = cmdline.getOptionValue(METRICS_FILE_OPTION[0]);
+        final double sampleFraction = Double.parseDouble(cmdline.getOptionValue(SAMPLE_OPTION[0], "1.0"));
+        final boolean dryRun = cmdline.hasOption(DRY_RUN_OPTION[0]);
+        final boolean priorityMode = cmdline.hasOption(PRIORITY_OPTION[0]);
+        final String timeBudgetStr = cmdline.getOptionValue(TIME_BUDGET_OPTION[0]);
+        final String spamThresholdStr = cmdline.getOptionValue(SPAM_THRESHOLD_OPTION[0]);
+        final String spamFilterPath = cmdline.getOptionValue(SPAM_FILTER_OPTION[0]);
+        final String deadLetterPath = cmdline.getOptionValue(DEAD_LETTER_OPTION[0]);
+        final String replayPath = cmdline.getOptionValue(REPLAY_OPTION[0]);
+        final String balanceSplitsStr = cmdline.getOptionValue(BALANCE_SPLITS_OPTION[0]);
+        final String splitHistoryPath = cmdline.getOptionValue(SPLIT_HISTORY_OPTION[0]);
+        final boolean outlinks = cmdline.hasOption(OUTLINKS_OPTION[0]);
+        final String bulkConcurrencyStr = cmdline.getOptionValue(BULK_CONCURRENCY_OPTION[0]);
+        final String quarantinePath = cmdline.getOptionValue(QUARANTINE_OPTION[0]);
 
         LOG.info("Tool name:        " + ChatNoirIndexer.class.getSimpleName());
         LOG.info(" - batch:         " + (batchNum + 1) + " of " + inputBatches);
@@ -179,17 +380,60 @@ public class ChatNoirIndexer extends Configured implements Tool
         LOG.info(" - spamranks:     " + (null != inputSpamRanks ? inputSpamRanks : "[none]"));
         LOG.info(" - pageranks:     " + (null != inputPageRanks ? inputPageRanks : "[none]"));
         LOG.info(" - anchors:       " + (null != inputAnchors   ? inputAnchors   : "[none]"));
+        LOG.info(" - join mode:     " + joinMode);
+        LOG.info(" - host stats:    " + (null != hostStatsPath ? hostStatsPath  : "[none]"));
+        LOG.info(" - host max docs: " + (null != hostMaxDocsStr ? hostMaxDocsStr : "[unlimited]"));
+        LOG.info(" - shard routing: " + (shardRouting ? "yes" : "no"));
+        LOG.info(" - speculative:   " + (speculative ? "yes" : "no"));
+        LOG.info(" - compression:   " + compression.name().toLowerCase());
+        LOG.info(" - metrics file:  " + (null != metricsFile ? metricsFile : "[none]"));
+        LOG.info(" - sample:        " + sampleFraction);
+        LOG.info(" - dry run:       " + (dryRun ? "yes" : "no"));
+        LOG.info(" - priority mode: " + (priorityMode ? "yes" : "no"));
+        LOG.info(" - time budget:   " + (null != timeBudgetStr ? timeBudgetStr + " min" : "[unlimited]"));
+        LOG.info(" - spam thresh.:  " + (null != spamThresholdStr ? spamThresholdStr : "[none]"));
+        LOG.info(" - spam filter:   " + (null != spamFilterPath ? spamFilterPath : "[none]"));
+        LOG.info(" - dead letters:  " + (null != deadLetterPath ? deadLetterPath : "[none]"));
+        LOG.info(" - replay:        " + (null != replayPath ? replayPath : "[none]"));
+        LOG.info(" - split target:  " + (null != balanceSplitsStr ? balanceSplitsStr : "[one per block]"));
+        LOG.info(" - split history: " + (null != splitHistoryPath ? splitHistoryPath : "[none]"));
+        LOG.info(" - outlinks:      " + (outlinks ? "yes" : "no"));
+        LOG.info(" - bulk requests: " + (null != bulkConcurrencyStr ? bulkConcurrencyStr + " concurrent" : "[es-hadoop]"));
+        LOG.info(" - quarantine:    " + (null != quarantinePath ? quarantinePath : "[none]"));
+
+        if (null != spamThresholdStr && null == inputSpamRanks) {
+            LOG.error("Spam threshold requires spam ranks.");
+            return -1;
+        }
+        if (null != timeBudgetStr && !priorityMode) {
+            LOG.error("Time budget requires priority mode.");
+            return -1;
+        }
+        if (outlinks && !"url".equalsIgnoreCase(joinMode.trim())) {
+            LOG.error("Outlink extraction requires URL join mode.");
+            return -1;
+        }
 
         // configure Hadoop for Elasticsearch
         final Configuration conf = getConf();
 
-        conf.setBoolean(MRJobConfig.MAP_SPECULATIVE,    false);
-        conf.setBoolean(MRJobConfig.REDUCE_SPECULATIVE, false);
+        conf.setBoolean(MRJobConfig.MAP_SPECULATIVE,    speculative);
+        conf.setBoolean(MRJobConfig.REDUCE_SPECULATIVE, speculative);
+
+        if (speculative) {
+            // Duplicate reduce attempts send identical documents with identical IDs, so index operations
+            // are idempotent as such. A fixed external version per job additionally guarantees that a late
+            // attempt can never overwrite documents of a newer job with stale data.
+            final long docVersion = conf.getLong(WarcMapReduceBase.CONF_DOC_VERSION, System.currentTimeMillis());
+            conf.setLong(WarcMapReduceBase.CONF_DOC_VERSION, docVersion);
+            conf.set("es.mapping.version",      "<" + docVersion + ">");
+            conf.set("es.mapping.version.type", "external_gte");
+            LOG.info(" - doc version:   " + docVersion);
+        }
 
         conf.set("es.resource",                conf.get("es.resource", indexName + "/_doc"));
         conf.set("es.mapping.id",              "uuid");
-        conf.set("es.mapping.exclude",         "uuid");
-        conf.set("es.input.json",              "false");
+        conf.set("es.input.json",              "true");
         conf.set("es.index.auto.create",       conf.get("es.index.auto.create",       "yes"));
         conf.set("es.http.timeout",            conf.get("es.http.timeout",            "1m"));
         conf.set("es.http.retries",            conf.get("es.http.retries",            "5"));
@@ -199,29 +443,183 @@ public class ChatNoirIndexer extends Configured implements Tool
         conf.set("es.batch.write.retry.wait",  conf.get("es.batch.write.retry.wait",  "30s"));
         conf.set("es.batch.write.refresh",     conf.get("es.batch.write.refresh",     "false"));
 
-        conf.set("webis.mapfile.uuid.prefix", uuidPrefix);
+        compression.configureShuffle(conf);
+
+        conf.set(WarcMapReduceBase.CONF_UUID_PREFIX, uuidPrefix);
+        conf.setDouble(WarcMapReduceBase.CONF_SAMPLE_FRACTION, sampleFraction);
+        conf.setBoolean(WarcMapReduceBase.CONF_DRY_RUN, dryRun);
+        conf.setBoolean(WarcMapReduceBase.CONF_PRIORITY, priorityMode);
+        if (null != timeBudgetStr) {
+            conf.setLong(WarcMapReduceBase.CONF_PRIORITY_DEADLINE,
+                    System.currentTimeMillis() + Long.parseLong(timeBudgetStr) * 60L * 1000L);
+        }
+        // make room for language and stage timing counters
+        conf.setInt(MRJobConfig.COUNTERS_MAX_KEY, Math.max(conf.getInt(MRJobConfig.COUNTERS_MAX_KEY, 120), 250));
+        conf.set(WarcMapReduceBase.CONF_JOIN_MODE,   joinMode);
+        conf.setBoolean(WarcMapReduceBase.CONF_OUTLINKS, outlinks);
+        if (null != bulkConcurrencyStr) {
+            conf.setInt(WarcMapReduceBase.CONF_BULK_CONCURRENCY, Integer.parseInt(bulkConcurrencyStr));
+        }
+        if (shardRouting && JoinKeyFactory.getJoinMode(conf) != JoinKeyFactory.JoinMode.ID) {
+            LOG.warn("Shard routing requires ID join mode, falling back to hash partitioning.");
+        }
+
+        if (shardRouting) {
+            // shard counts can be given explicitly if the index doesn't exist yet
+            if (null == conf.get(WarcMapReduceBase.CONF_ES_SHARDS)) {
+                final int[] shardCounts = EsShardRouting.fetchShardCounts(conf, indexName);
+                conf.setInt(WarcMapReduceBase.CONF_ES_SHARDS,         shardCounts[0]);
+                conf.setInt(WarcMapReduceBase.CONF_ES_ROUTING_SHARDS, shardCounts[1]);
+            }
+            final int numShards = conf.getInt(WarcMapReduceBase.CONF_ES_SHARDS, 1);
+            conf.setInt(WarcMapReduceBase.CONF_ES_ROUTING_SHARDS, conf.getInt(
+                    WarcMapReduceBase.CONF_ES_ROUTING_SHARDS, EsShardRouting.defaultRoutingShards(numShards)));
+            conf.setInt(MRJobConfig.NUM_REDUCES, numShards);
+            conf.setBoolean(WarcMapReduceBase.CONF_ES_SHARD_ROUTING,
+                    JoinKeyFactory.getJoinMode(conf) == JoinKeyFactory.JoinMode.ID);
+
+            // es-hadoop and the bulk writer pin each reducer to the node holding its primary shard,
+            // which requires node discovery
+            if (conf.getBoolean("es.nodes.wan.only", false)) {
+                LOG.warn("es.nodes.wan.only is set, reducers cannot be pinned to the nodes holding their shards.");
+            }
+
+            LOG.info(String.format(" - reducers:      %d (one per shard, %d routing shards)",
+                    numShards, conf.getInt(WarcMapReduceBase.CONF_ES_ROUTING_SHARDS, 0)));
+        }
+
+        // add input formats for input paths
+        if (!seqFileInputPath.endsWith("/")) {
+            seqFileInputPath += "/";
+        }
+
+        if (null != hostStatsPath) {
+            final Path statsPath = new Path(hostStatsPath);
+            if (!hasCompleteOutput(conf, statsPath)) {
+                if (!runHostStatsJobs(conf, compression, statsPath, seqFileInputPath + "data-r-*/data",
+                        inputSpamRanks, inputAnchors)) {
+                    LOG.error("Host statistics pre-pass failed.");
+                    return 1;
+                }
+            }
+            conf.set(WarcMapReduceBase.CONF_HOST_STATS, statsPath.toString());
+            if (null != hostMaxDocsStr) {
+                conf.setInt(WarcMapReduceBase.CONF_HOST_MAX_DOCS, Integer.parseInt(hostMaxDocsStr));
+            }
+        }
+
+        if (null != spamThresholdStr) {
+            conf.setLong(WarcMapReduceBase.CONF_SPAM_THRESHOLD, Long.parseLong(spamThresholdStr));
+            if (null != spamFilterPath) {
+                final Path filterPath = new Path(spamFilterPath);
+                if (!hasCompleteOutput(conf, filterPath)) {
+                    if (!runSpamFilterJob(conf, filterPath, inputSpamRanks)) {
+                        LOG.error("Spam filter pre-pass failed.");
+                        return 1;
+                    }
+                }
+                conf.set(WarcMapReduceBase.CONF_SPAM_FILTER, filterPath.toString());
+            }
+        } else if (null != spamFilterPath) {
+            LOG.warn("Spam filter has no effect without spam threshold.");
+        }
+
+        if (null != replayPath) {
+            final Path path = new Path(replayPath);
+            if (!path.getFileSystem(conf).exists(path)) {
+                LOG.error("Dead-letter directory to replay does not exist.");
+                return 1;
+            }
+            conf.set(WarcMapReduceBase.CONF_REPLAY, path.getFileSystem(conf).makeQualified(path).toString());
+        }
+
+        if (null != deadLetterPath) {
+            final Path path = new Path(deadLetterPath);
+            final String qualifiedPath = path.getFileSystem(conf).makeQualified(path).toString();
+            if (qualifiedPath.equals(conf.get(WarcMapReduceBase.CONF_REPLAY))) {
+                LOG.error("Dead letters cannot be written to the directory being replayed.");
+                return -1;
+            }
+            conf.set(WarcMapReduceBase.CONF_DEAD_LETTER, qualifiedPath);
+
+            // failed bulk items are written to the dead letters instead of failing the task
+            final String handlerPrefix = "es.write.rest.error.handler." + DeadLetterBulkErrorHandler.NAME;
+            conf.set("es.write.rest.error.handlers", DeadLetterBulkErrorHandler.NAME);
+            conf.set(handlerPrefix, DeadLetterBulkErrorHandler.class.getName());
+            conf.set(handlerPrefix + "." + DeadLetterBulkErrorHandler.PROP_PATH, qualifiedPath);
+            conf.set(handlerPrefix + "." + DeadLetterBulkErrorHandler.PROP_PAYLOAD,
+                    conf.get(WarcMapReduceBase.CONF_DEAD_LETTER_PAYLOAD, "false"));
+            conf.set(handlerPrefix + "." + DeadLetterBulkErrorHandler.PROP_MAX_ATTEMPTS,
+                    conf.get("es.batch.write.retry.count"));
+        }
+
+        if (null != quarantinePath) {
+            final Path path = new Path(quarantinePath);
+            conf.set(WarcMapReduceBase.CONF_QUARANTINE, path.getFileSystem(conf).makeQualified(path).toString());
+
+            // hung records must be quarantined before the attempt is killed for not reporting progress
+            final long quarantineTimeout = conf.getLong(WarcMapReduceBase.CONF_QUARANTINE_TIMEOUT, 120) * 1000L;
+            if (quarantineTimeout < 0) {
+                LOG.error("Quarantine timeout must not be negative.");
+                return -1;
+            }
+            final long taskTimeout = conf.getLong(MRJobConfig.TASK_TIMEOUT, 600000L);
+            if (quarantineTimeout > 0 && taskTimeout > 0 && quarantineTimeout >= taskTimeout) {
+                LOG.warn("Quarantine timeout is not shorter than the task timeout, hung records won't be quarantined.");
+            }
+        }
+
+        // pre-passes are not balanced and don't record processing times, since their costs differ
+        if (null != balanceSplitsStr) {
+            conf.setInt(WarcMapReduceBase.CONF_SPLIT_TARGET, Integer.parseInt(balanceSplitsStr));
+        }
+        if (null != splitHistoryPath) {
+            conf.set(WarcMapReduceBase.CONF_SPLIT_HISTORY, splitHistoryPath);
+        }
+
+        final LanguageFields languageFields = new LanguageFields(conf);
+        LOG.info(" - languages:     " + String.join(",", languageFields.getLanguages()) + " (others: " +
+                LanguageFields.FALLBACK + ")");
+        if (!dryRun) {
+            // add all language fields to the mapping up front instead of one by one during ingest
+            try {
+                languageFields.createMappings(conf, indexName, WarcMapReduceBase.BODY_KEY_PREFIX,
+                        WarcMapReduceBase.FULL_BODY_KEY_PREFIX, WarcMapReduceBase.HEADINGS_KEY_PREFIX,
+                        WarcMapReduceBase.TITLE_KEY_PREFIX, WarcMapReduceBase.META_DESC_KEY_PREFIX,
+                        WarcMapReduceBase.ANCHOR_TEXTS_KEY_PREFIX, WarcMapReduceBase.SNIPPETS_KEY_PREFIX);
+            } catch (IOException e) {
+                LOG.warn("Could not create language field mappings, fields will be mapped during ingest: " +
+                        e.getMessage());
+            }
+        }
 
         final Job job = Job.getInstance(conf);
         job.setJobName(String.format("chatnoir2-indexer: %s, batch %d of %d", indexName , batchNum + 1, inputBatches));
         job.setJarByClass(ChatNoirIndexer.class);
-        job.setOutputFormatClass(EsOutputFormat.class);
-        job.setMapOutputKeyClass(Text.class);
+        if (dryRun) {
+            job.setOutputFormatClass(NullOutputFormat.class);
+        } else if (null != bulkConcurrencyStr) {
+            job.setOutputFormatClass(EsBulkOutputFormat.class);
+        } else {
+            job.setOutputFormatClass(EsOutputFormat.class);
+        }
+        job.setMapOutputKeyClass(JoinKeyWritable.class);
         job.setMapOutputValueClass(MapWritable.class);
+        job.setGroupingComparatorClass(JoinKeyWritable.GroupingComparator.class);
         job.setReducerClass(WarcReducer.class);
-
-        // add input formats for input paths
-        if (!seqFileInputPath.endsWith("/")) {
-            seqFileInputPath += "/";
+        if (shardRouting) {
+            job.setPartitionerClass(EsShardPartitioner.class);
         }
+
         if (inputBatches == 1) {
-            MultipleInputs.addInputPath(job, new Path(seqFileInputPath + "data-r-*/data"), SequenceFileInputFormat.class, WarcMapper.class);
+            MultipleInputs.addInputPath(job, new Path(seqFileInputPath + "data-r-*/data"), WarcInputFormat.class, WarcMapper.class);
             LOG.info(" - sequence file: " + seqFileInputPath + "data-r-*/data");
         } else {
             int numFiles = inputPartitions / inputBatches;
             for (int i = numFiles * batchNum; i < numFiles + numFiles * batchNum; ++i) {
                 String mapFile = String.format("data-r-%05d/data", i);
                 LOG.info(" - sequence file: " + mapFile);
-                MultipleInputs.addInputPath(job, new Path(seqFileInputPath + mapFile), SequenceFileInputFormat.class, WarcMapper.class);
+                MultipleInputs.addInputPath(job, new Path(seqFileInputPath + mapFile), WarcInputFormat.class, WarcMapper.class);
             }
         }
 
@@ -232,7 +630,25 @@ public class ChatNoirIndexer extends Configured implements Tool
         if (null != inputAnchors)
             MultipleInputs.addInputPath(job, new Path(inputAnchors), TextInputFormat.class, WarcAnchorMapper.class);
 
-        job.waitForCompletion(true);
+        JobMetricsReporter metricsReporter = null;
+        if (null != metricsFile) {
+            job.submit();
+            metricsReporter = new JobMetricsReporter(job, new File(metricsFile),
+                    String.format("%d/%d", batchNum + 1, inputBatches));
+            metricsReporter.start(conf.getInt(WarcMapReduceBase.CONF_METRICS_INTERVAL, 60));
+        }
+        final boolean success;
+        try {
+            success = job.waitForCompletion(true);
+        } finally {
+            if (null != metricsReporter) {
+                metricsReporter.stop();
+            }
+        }
+
+        if (null != splitHistoryPath) {
+            SplitCostHistory.compact(new Path(splitHistoryPath), conf);
+        }
 
         final Counters counters        = job.getCounters();
         final long numDocs             = counters.findCounter(WarcMapReduceBase.RecordCounters.RECORDS).getValue();
@@ -240,15 +656,297 @@ public class ChatNoirIndexer extends Configured implements Tool
         final long numSkippedParseErr  = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_HTML_PARSE_ERROR).getValue();
         final long numGenerated        = counters.findCounter(WarcMapReduceBase.RecordCounters.GENERATED_DOCS).getValue();
         final long numEmptyContent     = counters.findCounter(WarcMapReduceBase.RecordCounters.NO_CONTENT).getValue();
+        final long numDateParseErr     = counters.findCounter(WarcMapReduceBase.RecordCounters.DATE_PARSE_ERROR).getValue();
+        final long numSkippedHostLimit = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_HOST_LIMIT).getValue();
+        final long numSkippedType      = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_CONTENT_TYPE).getValue();
+        final long numSkippedPriority  = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_PRIORITY).getValue();
+        final long numSkippedDeadline  = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_DEADLINE).getValue();
+        final long numSkippedSpam      = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_SPAM).getValue();
+        final long numSkippedExtract   = counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_EXTRACTION_ERROR).getValue();
+        final long numDeadLetters      = counters.findCounter(WarcMapReduceBase.RecordCounters.DEAD_LETTERS).getValue();
         LOG.info(String.format("Read %d records total.", numDocs));
         LOG.info(String.format("Skipped %d oversized records.", numSkippedTooLarge));
         LOG.info(String.format("Skipped %d due to HTML parse errors.", numSkippedParseErr));
+        LOG.info(String.format("Skipped %d due to content extraction errors.", numSkippedExtract));
+        LOG.info(String.format("Skipped %d records with filtered content types.", numSkippedType));
+        LOG.info(String.format("Skipped %d records exceeding the per-host document limit.", numSkippedHostLimit));
+        LOG.info(String.format("Skipped %d records below the spam threshold.", numSkippedSpam));
+        LOG.info(String.format("Skipped %d documents outside the priority range.", numSkippedPriority));
+        LOG.info(String.format("Skipped %d documents after the time budget was exhausted.", numSkippedDeadline));
         LOG.info(String.format("Generated %d JSON documents.", numGenerated));
         LOG.info(String.format("Skipped %d documents due to no or empty plain-text content.", numEmptyContent));
+        LOG.info(String.format("Dropped ranks and anchors of %d keys without document.",
+                counters.findCounter(WarcMapReduceBase.RecordCounters.NO_DOCUMENT).getValue()));
+        LOG.info(String.format("Failed to parse HTTP dates of %d records.", numDateParseErr));
+        if (null != quarantinePath) {
+            LOG.info(String.format("Skipped %d records quarantined by previous task attempts.",
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.SKIPPED_RECORDS_QUARANTINED).getValue()));
+
+            // markers are only matched within the same job, so they are of no use after it has succeeded
+            if (success) {
+                final Path markerPath = new Path(quarantinePath, RecordQuarantine.MARKER_DIR);
+                markerPath.getFileSystem(conf).delete(markerPath, true);
+            }
+        }
+        if (null != deadLetterPath) {
+            LOG.info(String.format("Wrote %d dead letters in map stage to %s (failed bulk items are written there as well).",
+                    numDeadLetters, deadLetterPath));
+        }
+
+        reportLanguages(counters);
+
+        if (dryRun || sampleFraction < 1.0) {
+            reportEstimates(counters, sampleFraction, conf.getInt(WarcMapReduceBase.CONF_ESTIMATE_MAPPERS, 0));
+        }
+
+        final long mapOutputBytes       = counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+        final long mapMaterializedBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+        if (mapMaterializedBytes > 0) {
+            LOG.info(String.format("Shuffled %d bytes of %d bytes map output (compression ratio %.2f).",
+                    mapMaterializedBytes, mapOutputBytes, (double) mapOutputBytes / mapMaterializedBytes));
+        }
+        if (CompressionProfile.NONE != compression) {
+            LOG.info(String.format("Spent %.1fs compressing and %.1fs decompressing map output.",
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_COMPRESS_MILLIS).getValue() / 1000.0,
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_DECOMPRESS_MILLIS).getValue() / 1000.0));
+        }
 
         return 0;
     }
 
+    /**
+     * Log the distribution of documents over field languages.
+     *
+     * @param counters job counters
+     */
+    private void reportLanguages(final Counters counters)
+    {
+        final CounterGroup languages = counters.getGroup(WarcMapReduceBase.LANGUAGE_COUNTER_GROUP);
+        long total = 0;
+        for (final Counter c : languages) {
+            total += c.getValue();
+        }
+        if (total == 0) {
+            return;
+        }
+
+        final ArrayList<Counter> sorted = new ArrayList<>();
+        languages.forEach(sorted::add);
+        sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        LOG.info("Documents per field language:");
+        for (final Counter c : sorted) {
+            LOG.info(String.format(" - %-8s %12d (%.2f%%)", c.getName() + ":", c.getValue(), 100.0 * c.getValue() / total));
+        }
+    }
+
+    /**
+     * Log estimates for processing the full input based on the counters of a sampled job.
+     *
+     * @param counters job counters
+     * @param sampleFraction sampled fraction of documents
+     * @param numMappers number of parallel mappers to estimate the runtime for (0 for number of launched maps)
+     */
+    private void reportEstimates(final Counters counters, final double sampleFraction, int numMappers)
+    {
+        final double scale = 1.0 / sampleFraction;
+        if (numMappers <= 0) {
+            numMappers = (int) Math.max(1, counters.findCounter(JobCounter.TOTAL_LAUNCHED_MAPS).getValue());
+        }
+
+        final long numTotal     = counters.findCounter(WarcMapReduceBase.RecordCounters.TOTAL_RECORDS).getValue();
+        final long numGenerated = counters.findCounter(WarcMapReduceBase.RecordCounters.GENERATED_DOCS).getValue();
+        final long outputBytes  = counters.findCounter(WarcMapReduceBase.RecordCounters.DRY_RUN_OUTPUT_BYTES).getValue();
+
+        LOG.info(String.format("Estimates for the full input (sample fraction %f):", sampleFraction));
+        LOG.info(String.format(" - documents:     %d", Math.round(numGenerated * scale)));
+        if (outputBytes > 0) {
+            LOG.info(String.format(" - output bytes:  %d (%d bytes per document)", Math.round(outputBytes * scale),
+                    outputBytes / Math.max(1, numGenerated)));
+        }
+
+        // records are skipped either before (not scaled) or after the sampling decision (scaled)
+        LOG.info(" - skipped fractions:");
+        for (final WarcMapReduceBase.RecordCounters c : WarcMapReduceBase.RecordCounters.values()) {
+            if (!c.name().startsWith("SKIPPED_")) {
+                continue;
+            }
+            final long value = counters.findCounter(c).getValue();
+            final double estimate = PRE_SAMPLE_COUNTERS.contains(c) ? value : value * scale;
+            LOG.info(String.format("   - %-36s %.4f", c.name().toLowerCase() + ":", estimate / Math.max(1, numTotal)));
+        }
+
+        final CounterGroup timings = counters.getGroup(StageTimer.COUNTER_GROUP);
+        if (timings.size() == 0) {
+            return;
+        }
+        LOG.info(" - stage timings (p50 / p90 / p99 upper bounds, total estimated time):");
+        for (final String stage : new String[] {"map_parse_json", "map_parse_html", "map_lang_detect",
+                "map_main_content", "map_total", "reduce", "reduce_serialize"}) {
+            final long[] buckets = new long[StageTimer.BUCKET_BOUNDS_MS.length + 1];
+            long count = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                buckets[i] = timings.findCounter(StageTimer.bucketName(stage, i)).getValue();
+                count += buckets[i];
+            }
+            if (count == 0) {
+                continue;
+            }
+            final double totalSeconds = timings.findCounter(StageTimer.totalName(stage)).getValue() / 1e6 * scale;
+            final String parallelism = stage.startsWith("map_") ? String.format(", %.0fs at %d mappers",
+                    totalSeconds / numMappers, numMappers) : "";
+            LOG.info(String.format("   - %-20s %s / %s / %s, %.0fs%s", stage + ":",
+                    percentileBound(buckets, count, 0.5), percentileBound(buckets, count, 0.9),
+                    percentileBound(buckets, count, 0.99), totalSeconds, parallelism));
+        }
+    }
+
+    /**
+     * Get the upper bound of the histogram bucket that contains a given percentile.
+     */
+    private static String percentileBound(final long[] buckets, final long count, final double percentile)
+    {
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; ++i) {
+            cumulative += buckets[i];
+            if (cumulative >= percentile * count) {
+                return i < StageTimer.BUCKET_BOUNDS_MS.length ?
+                        "<" + StageTimer.BUCKET_BOUNDS_MS[i] + "ms" :
+                        ">=" + StageTimer.BUCKET_BOUNDS_MS[StageTimer.BUCKET_BOUNDS_MS.length - 1] + "ms";
+            }
+        }
+        return "n/a";
+    }
+
+    /**
+     * Run the host statistics pre-pass, which consists of two jobs. The first one joins documents
+     * with their spam ranks and anchors and emits partial statistics keyed by host hash, the second
+     * one aggregates these per host.
+     *
+     * @param conf base configuration
+     * @param compression compression profile for intermediate outputs
+     * @param outputPath output path for the final host statistics
+     * @param seqFileInputPath glob of input mapfiles
+     * @param inputSpamRanks spam rank input path (may be null)
+     * @param inputAnchors anchor text input path (may be null)
+     * @return whether both jobs succeeded
+     */
+    private boolean runHostStatsJobs(final Configuration conf, final CompressionProfile compression,
+                                     final Path outputPath, final String seqFileInputPath,
+                                     final String inputSpamRanks, final String inputAnchors) throws Exception
+    {
+        final Path joinPath = new Path(outputPath.getParent(), outputPath.getName() + "-join");
+        // remove leftover intermediate output of a killed run
+        joinPath.getFileSystem(conf).delete(joinPath, true);
+
+        final Job joinJob = Job.getInstance(conf);
+        joinJob.setJobName("chatnoir2-indexer: host statistics (join)");
+        joinJob.setJarByClass(ChatNoirIndexer.class);
+        joinJob.setMapOutputKeyClass(JoinKeyWritable.class);
+        joinJob.setMapOutputValueClass(HostStatsWritable.class);
+        joinJob.setGroupingComparatorClass(JoinKeyWritable.GroupingComparator.class);
+        joinJob.setCombinerClass(HostStatsSumReducer.class);
+        joinJob.setReducerClass(HostStatsJoinReducer.class);
+        joinJob.setOutputKeyClass(LongWritable.class);
+        joinJob.setOutputValueClass(HostStatsWritable.class);
+        joinJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+        SequenceFileOutputFormat.setOutputPath(joinJob, joinPath);
+        compression.configureOutput(joinJob);
+
+        MultipleInputs.addInputPath(joinJob, new Path(seqFileInputPath), WarcInputFormat.class, HostStatsDocumentMapper.class);
+        if (null != inputSpamRanks)
+            MultipleInputs.addInputPath(joinJob, new Path(inputSpamRanks), TextInputFormat.class, HostStatsSpamRankMapper.class);
+        if (null != inputAnchors)
+            MultipleInputs.addInputPath(joinJob, new Path(inputAnchors), TextInputFormat.class, HostStatsAnchorMapper.class);
+
+        if (!joinJob.waitForCompletion(true)) {
+            return false;
+        }
+
+        final Job aggregateJob = Job.getInstance(conf);
+        aggregateJob.setJobName("chatnoir2-indexer: host statistics (aggregate)");
+        aggregateJob.setJarByClass(ChatNoirIndexer.class);
+        aggregateJob.setInputFormatClass(SequenceFileInputFormat.class);
+        aggregateJob.setMapperClass(Mapper.class);
+        aggregateJob.setCombinerClass(HostStatsSumReducer.class);
+        aggregateJob.setReducerClass(HostStatsSumReducer.class);
+        aggregateJob.setOutputKeyClass(LongWritable.class);
+        aggregateJob.setOutputValueClass(HostStatsWritable.class);
+        aggregateJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+        SequenceFileInputFormat.addInputPath(aggregateJob, joinPath);
+        SequenceFileOutputFormat.setOutputPath(aggregateJob, outputPath);
+        compression.configureOutput(aggregateJob);
+
+        final boolean success = aggregateJob.waitForCompletion(true);
+        joinPath.getFileSystem(conf).delete(joinPath, true);
+        return success;
+    }
+
+    /**
+     * Check whether a pre-pass output directory exists and was written by a successful job.
+     * Incomplete output of failed or killed jobs is deleted, so the pre-pass can be run again.
+     *
+     * @param conf job configuration
+     * @param outputPath output directory
+     * @return true if complete output exists
+     * @throws IOException on file system errors
+     */
+    private static boolean hasCompleteOutput(final Configuration conf, final Path outputPath) throws IOException
+    {
+        final FileSystem fs = outputPath.getFileSystem(conf);
+        if (!fs.exists(outputPath)) {
+            return false;
+        }
+        if (fs.exists(new Path(outputPath, FileOutputCommitter.SUCCEEDED_FILE_NAME))) {
+            return true;
+        }
+        LOG.warn("Deleting incomplete pre-pass output " + outputPath);
+        fs.delete(outputPath, true);
+        return false;
+    }
+
+    /**
+     * Run the spam filter pre-pass, which builds partial Bloom filters of all keys at or above the spam
+     * threshold per input split and merges them into a single filter in one reducer. The filter is sized
+     * from the size of the spam rank input and the expected fraction of ranks above the threshold (spam
+     * ranks are percentiles).
+     *
+     * @param conf base configuration with spam threshold set
+     * @param outputPath output path for the filter
+     * @param inputSpamRanks spam rank input path
+     * @return whether the job succeeded
+     */
+    private boolean runSpamFilterJob(final Configuration conf, final Path outputPath,
+                                     final String inputSpamRanks) throws Exception
+    {
+        final Path spamRankPath = new Path(inputSpamRanks);
+        final long inputBytes = spamRankPath.getFileSystem(conf).getContentSummary(spamRankPath).getLength();
+        final long threshold = conf.getLong(WarcMapReduceBase.CONF_SPAM_THRESHOLD, 0);
+        final double passFraction = Math.min(1.0, Math.max(0.01, (100 - threshold) / 100.0));
+
+        // about 25 bytes per line for ClueWeb IDs
+        final long expectedKeys = Math.max(1000000L, (long) (inputBytes / 25 * passFraction));
+        final long numBits = KeyBloomFilter.optimalNumBits(expectedKeys,
+                conf.getDouble(WarcMapReduceBase.CONF_SPAM_FILTER_FPP, 0.01));
+        conf.setLong(WarcMapReduceBase.CONF_SPAM_FILTER_BITS, numBits);
+        conf.setInt(WarcMapReduceBase.CONF_SPAM_FILTER_HASHES, KeyBloomFilter.optimalNumHashes(expectedKeys, numBits));
+        LOG.info(String.format("Building spam filter for %d expected keys (%d MiB)", expectedKeys, numBits / 8 / 1024 / 1024));
+
+        final Job job = Job.getInstance(conf);
+        job.setJobName("chatnoir2-indexer: spam filter");
+        job.setJarByClass(ChatNoirIndexer.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setMapperClass(SpamFilterMapper.class);
+        job.setReducerClass(SpamFilterReducer.class);
+        job.setNumReduceTasks(1);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(KeyBloomFilter.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        TextInputFormat.addInputPath(job, spamRankPath);
+        SequenceFileOutputFormat.setOutputPath(job, outputPath);
+
+        return job.waitForCompletion(true);
+    }
+
     /**
      * Dispatches command-line arguments to the tool via the <code>ToolRunner</code>.
      *
@@ -0,0 +1,122 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.app;
+
+import de.webis.chatnoir2.indexer.mapreduce.TimedCompressionCodec;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.ZStandardCodec;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+/**
+ * Compression settings for intermediate map outputs and intermediate job outputs
+ * (such as the host statistics), which are stored as SequenceFiles.
+ *
+ * Codecs can be overridden individually with <code>mapreduce.map.output.compress.codec</code>
+ * and <code>mapreduce.output.fileoutputformat.compress.codec</code>. The map output codec is wrapped
+ * in a {@link TimedCompressionCodec}, so the time spent compressing and decompressing shuffle data
+ * is reported in the job counters.
+ *
+ * @author Janek Bevendorff
+ */
+public enum CompressionProfile
+{
+    /**
+     * No compression.
+     */
+    NONE(null, null),
+
+    /**
+     * Fast LZ4 compression for shuffle data and stored outputs.
+     */
+    FAST(Lz4Codec.class, Lz4Codec.class),
+
+    /**
+     * Zstandard for shuffle data and stored outputs. Shrinks map output spills and shuffle
+     * transfers considerably at the cost of more CPU time in mappers and reducers.
+     */
+    DENSE(ZStandardCodec.class, ZStandardCodec.class);
+
+    private final Class<? extends CompressionCodec> mShuffleCodec;
+    private final Class<? extends CompressionCodec> mOutputCodec;
+
+    CompressionProfile(final Class<? extends CompressionCodec> shuffleCodec,
+                       final Class<? extends CompressionCodec> outputCodec)
+    {
+        mShuffleCodec = shuffleCodec;
+        mOutputCodec  = outputCodec;
+    }
+
+    /**
+     * Get profile by name.
+     *
+     * @param name profile name (case-insensitive)
+     * @return compression profile
+     */
+    public static CompressionProfile fromName(final String name)
+    {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * Configure map output compression.
+     *
+     * @param conf job configuration
+     */
+    public void configureShuffle(final Configuration conf)
+    {
+        if (null == mShuffleCodec) {
+            return;
+        }
+        conf.setBoolean(MRJobConfig.MAP_OUTPUT_COMPRESS, true);
+        final Class<? extends CompressionCodec> codec = conf.getClass(
+                MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, mShuffleCodec, CompressionCodec.class);
+        conf.setClass(TimedCompressionCodec.CONF_CODEC, codec, CompressionCodec.class);
+        conf.setClass(MRJobConfig.MAP_OUTPUT_COMPRESS_CODEC, TimedCompressionCodec.class, CompressionCodec.class);
+    }
+
+    /**
+     * Configure block compression of SequenceFile job outputs.
+     *
+     * @param job job writing SequenceFile outputs
+     */
+    public void configureOutput(final Job job)
+    {
+        if (null == mOutputCodec) {
+            return;
+        }
+        FileOutputFormat.setCompressOutput(job, true);
+        if (null == job.getConfiguration().get(FileOutputFormat.COMPRESS_CODEC)) {
+            FileOutputFormat.setOutputCompressorClass(job, mOutputCodec);
+        }
+        SequenceFileOutputFormat.setOutputCompressionType(job, SequenceFile.CompressionType.BLOCK);
+    }
+}
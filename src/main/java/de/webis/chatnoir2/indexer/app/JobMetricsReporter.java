@@ -0,0 +1,264 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.app;
+
+import de.webis.chatnoir2.indexer.mapreduce.WarcMapReduceBase;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically polls the counters of a running job and writes throughput metrics to a local file.
+ *
+ * If the file name ends with <code>.prom</code>, the file is (atomically) replaced with the current
+ * metrics in Prometheus text format on each update, so it can be picked up by the node exporter's
+ * textfile collector. Otherwise, one tab-separated line per update is appended to the file.
+ *
+ * @author Janek Bevendorff
+ */
+public class JobMetricsReporter
+{
+    private static final Logger LOG = Logger.getLogger(JobMetricsReporter.class);
+
+    /**
+     * Counter group of the es-hadoop output format.
+     */
+    private static final String ES_COUNTER_GROUP = "org.elasticsearch.hadoop.mr.Counter";
+
+    private static final String METRIC_PREFIX = "chatnoir_indexer_";
+
+    private final Job mJob;
+    private final File mFile;
+    private final boolean mPrometheus;
+    private final String mBatch;
+    private final List<WarcMapReduceBase.RecordCounters> mSkipCounters = new ArrayList<>();
+    private final ScheduledExecutorService mExecutor;
+
+    private long mStartTime;
+    private long mLastTime;
+    private long mLastRead;
+    private long mLastGenerated;
+    private long mLastEsBytes;
+    private long mLastEsDocs;
+    private long[] mLastSkipped;
+
+    /**
+     * @param job job to monitor
+     * @param file local metrics file
+     * @param batch batch label (e.g. "1/10")
+     */
+    public JobMetricsReporter(final Job job, final File file, final String batch)
+    {
+        mJob = job;
+        mFile = file;
+        mPrometheus = file.getName().endsWith(".prom");
+        mBatch = batch;
+
+        for (final WarcMapReduceBase.RecordCounters c : WarcMapReduceBase.RecordCounters.values()) {
+            if (c.name().startsWith("SKIPPED_")) {
+                mSkipCounters.add(c);
+            }
+        }
+        mLastSkipped = new long[mSkipCounters.size()];
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "job-metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start polling the job. The job must already be submitted.
+     *
+     * @param intervalSeconds polling interval in seconds
+     */
+    public void start(final int intervalSeconds)
+    {
+        mStartTime = System.currentTimeMillis();
+        mLastTime = mStartTime;
+        mExecutor.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop polling and write final metrics.
+     */
+    public void stop()
+    {
+        mExecutor.shutdownNow();
+        try {
+            mExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+    }
+
+    private synchronized void report()
+    {
+        try {
+            final Counters counters = mJob.getCounters();
+            if (null == counters) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            final double interval = Math.max(1, now - mLastTime) / 1000.0;
+            final double elapsed = (now - mStartTime) / 1000.0;
+
+            final long read      = counters.findCounter(WarcMapReduceBase.RecordCounters.TOTAL_RECORDS).getValue();
+            final long generated = counters.findCounter(WarcMapReduceBase.RecordCounters.GENERATED_DOCS).getValue();
+            // documents are sent either by es-hadoop or by the concurrent bulk writer, only one of them counts
+            final CounterGroup esGroup = counters.getGroup(ES_COUNTER_GROUP);
+            final long esBytes   = esGroup.findCounter("BYTES_SENT").getValue() +
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.BULK_BYTES_SENT).getValue();
+            final long esDocs    = esGroup.findCounter("DOCS_SENT").getValue() +
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.BULK_DOCUMENTS_WRITTEN).getValue();
+
+            // ratio is 1 until map output has been materialized (or if it is not compressed)
+            final long mapOutputBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_BYTES).getValue();
+            final long mapMaterializedBytes = counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue();
+            final double compressionRatio = mapMaterializedBytes > 0 ? (double) mapOutputBytes / mapMaterializedBytes : 1.0;
+            final double compressSeconds =
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_COMPRESS_MILLIS).getValue() / 1000.0;
+            final double decompressSeconds =
+                    counters.findCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_DECOMPRESS_MILLIS).getValue() / 1000.0;
+
+            final long[] skipped = new long[mSkipCounters.size()];
+            for (int i = 0; i < skipped.length; ++i) {
+                skipped[i] = counters.findCounter(mSkipCounters.get(i)).getValue();
+            }
+
+            final float mapProgress = mJob.mapProgress();
+            final float reduceProgress = mJob.reduceProgress();
+
+            // documents are indexed during the reduce phase, so weight both phases equally
+            final double progress = (mapProgress + reduceProgress) / 2.0;
+            final double eta = progress > 0.0 ? elapsed * (1.0 - progress) / progress : -1.0;
+
+            final StringBuilder sb = new StringBuilder();
+            if (mPrometheus) {
+                final String labels = "{batch=\"" + mBatch + "\"}";
+                appendGauge(sb, "map_progress", labels, mapProgress);
+                appendGauge(sb, "reduce_progress", labels, reduceProgress);
+                appendGauge(sb, "eta_seconds", labels, eta);
+                appendGauge(sb, "elapsed_seconds", labels, elapsed);
+                appendGauge(sb, "records_read_total", labels, read);
+                appendGauge(sb, "records_read_per_second", labels, (read - mLastRead) / interval);
+                appendGauge(sb, "docs_generated_total", labels, generated);
+                appendGauge(sb, "docs_generated_per_second", labels, (generated - mLastGenerated) / interval);
+                appendGauge(sb, "es_bytes_sent_per_second", labels, (esBytes - mLastEsBytes) / interval);
+                appendGauge(sb, "es_docs_sent_per_second", labels, (esDocs - mLastEsDocs) / interval);
+                appendGauge(sb, "map_output_compression_ratio", labels, compressionRatio);
+                appendGauge(sb, "shuffle_compress_seconds_total", labels, compressSeconds);
+                appendGauge(sb, "shuffle_decompress_seconds_total", labels, decompressSeconds);
+                for (int i = 0; i < skipped.length; ++i) {
+                    final String reasonLabels = "{batch=\"" + mBatch + "\",reason=\"" +
+                            mSkipCounters.get(i).name().toLowerCase(Locale.ROOT) + "\"}";
+                    appendGauge(sb, "records_skipped_total", reasonLabels, skipped[i]);
+                    appendGauge(sb, "records_skipped_per_second", reasonLabels, (skipped[i] - mLastSkipped[i]) / interval);
+                }
+                writePrometheusFile(sb.toString());
+            } else {
+                final boolean newFile = !mFile.exists() || mFile.length() == 0;
+                if (newFile) {
+                    sb.append("timestamp\tbatch\telapsed_s\tmap_progress\treduce_progress\teta_s\tread_per_s" +
+                            "\tgenerated_per_s\tes_bytes_per_s\tes_docs_per_s\tcompression_ratio" +
+                            "\tshuffle_compress_s\tshuffle_decompress_s");
+                    for (final WarcMapReduceBase.RecordCounters c : mSkipCounters) {
+                        sb.append('\t').append(c.name().toLowerCase(Locale.ROOT)).append("_per_s");
+                    }
+                    sb.append('\n');
+                }
+                sb.append(now).append('\t').append(mBatch);
+                appendValue(sb, elapsed);
+                appendValue(sb, mapProgress);
+                appendValue(sb, reduceProgress);
+                appendValue(sb, eta);
+                appendValue(sb, (read - mLastRead) / interval);
+                appendValue(sb, (generated - mLastGenerated) / interval);
+                appendValue(sb, (esBytes - mLastEsBytes) / interval);
+                appendValue(sb, (esDocs - mLastEsDocs) / interval);
+                appendValue(sb, compressionRatio);
+                appendValue(sb, compressSeconds);
+                appendValue(sb, decompressSeconds);
+                for (int i = 0; i < skipped.length; ++i) {
+                    appendValue(sb, (skipped[i] - mLastSkipped[i]) / interval);
+                }
+                sb.append('\n');
+                try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                        new FileOutputStream(mFile, true), StandardCharsets.UTF_8))) {
+                    writer.print(sb);
+                }
+            }
+
+            mLastTime      = now;
+            mLastRead      = read;
+            mLastGenerated = generated;
+            mLastEsBytes   = esBytes;
+            mLastEsDocs    = esDocs;
+            mLastSkipped   = skipped;
+        } catch (IOException | RuntimeException e) {
+            // don't let a failed update cancel the schedule
+            LOG.warn("Failed to write job metrics: " + e.getMessage());
+        }
+    }
+
+    private static void appendGauge(final StringBuilder sb, final String name, final String labels, final double value)
+    {
+        sb.append(METRIC_PREFIX).append(name).append(labels).append(' ')
+                .append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    private static void appendValue(final StringBuilder sb, final double value)
+    {
+        sb.append('\t').append(String.format(Locale.ROOT, "%.3f", value));
+    }
+
+    private void writePrometheusFile(final String contents) throws IOException
+    {
+        final File tmpFile = new File(mFile.getAbsoluteFile().getParentFile(), "." + mFile.getName() + ".tmp");
+        Files.write(tmpFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.elasticsearch.hadoop.handler.HandlerResult;
+import org.elasticsearch.hadoop.rest.bulk.handler.BulkWriteErrorHandler;
+import org.elasticsearch.hadoop.rest.bulk.handler.BulkWriteFailure;
+import org.elasticsearch.hadoop.rest.bulk.handler.DelayableErrorCollector;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * es-hadoop bulk write error handler which writes failed documents to the dead-letter directory
+ * instead of failing the task. Rejected bulk requests (HTTP 429) are passed on to the default
+ * handler to be retried with back-off until the retry limit is nearly reached.
+ *
+ * @author Janek Bevendorff
+ */
+public class DeadLetterBulkErrorHandler extends BulkWriteErrorHandler implements WarcMapReduceBase
+{
+    /**
+     * Handler name for <code>es.write.rest.error.handlers</code>.
+     */
+    public static final String NAME = "deadletter";
+
+    public static final String PROP_PATH         = "path";
+    public static final String PROP_PAYLOAD      = "payload";
+    public static final String PROP_MAX_ATTEMPTS = "max.attempts";
+
+    private DeadLetterWriter mWriter;
+    private int mMaxAttempts;
+
+    @Override
+    public void init(final Properties properties)
+    {
+        mWriter = new DeadLetterWriter(new Path(properties.getProperty(PROP_PATH)), "bulk-" + UUID.randomUUID(),
+                new Configuration(), Boolean.parseBoolean(properties.getProperty(PROP_PAYLOAD, "false")));
+        mMaxAttempts = Integer.parseInt(properties.getProperty(PROP_MAX_ATTEMPTS, "5"));
+    }
+
+    @Override
+    public HandlerResult onError(final BulkWriteFailure entry, final DelayableErrorCollector<byte[]> collector) throws Exception
+    {
+        if (entry.getResponseCode() == 429 && entry.getNumberOfAttempts() < mMaxAttempts) {
+            return HandlerResult.PASS;
+        }
+
+        // entry consists of the action line and the document source
+        final String contents = readContents(entry.getEntryContents());
+        final int sourceStart = contents.indexOf('\n') + 1;
+        final String source = contents.substring(sourceStart).trim();
+
+        String uuid = null;
+        String url = null;
+        try {
+            final JSONObject document = new JSONObject(source);
+            uuid = document.optString(DOCUMENT_UUID_KEY.toString(), null);
+            url = document.optString(WARC_TARGET_URI_KEY.toString(), null);
+        } catch (JSONException ignored) {
+        }
+
+        final Exception e = entry.getException();
+        mWriter.write(DeadLetterWriter.SOURCE_BULK,
+                String.format("HTTP %d: %s", entry.getResponseCode(), null != e ? e.getMessage() : "unknown error"),
+                null, uuid, url, source);
+        LOG.warn(String.format("Bulk write of document %s failed with HTTP %d, written to dead letters",
+                uuid, entry.getResponseCode()));
+        return HandlerResult.HANDLED;
+    }
+
+    @Override
+    public void close()
+    {
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close dead-letter file: " + e.getMessage());
+        }
+    }
+
+    private static String readContents(final InputStream is) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Writer for dead letters, i.e. records which could not be indexed. Dead letters are written as
+ * JSON lines with the failing stage, a reason and the IDs needed to replay the record.
+ *
+ * Each writer has its own file in the dead-letter directory, so concurrent or failed task attempts
+ * never write to the same file. The file is only created once the first dead letter is written.
+ *
+ * @author Janek Bevendorff
+ */
+public class DeadLetterWriter implements Closeable, WarcMapReduceBase
+{
+    public static final String SOURCE_MAP  = "map";
+    public static final String SOURCE_BULK = "bulk";
+
+    public static final String FIELD_SOURCE  = "source";
+    public static final String FIELD_REASON  = "reason";
+    public static final String FIELD_ID      = "id";
+    public static final String FIELD_UUID    = "uuid";
+    public static final String FIELD_URL     = "url";
+    public static final String FIELD_PAYLOAD = "payload";
+
+    private final Path mFile;
+    private final Configuration mConf;
+    private final boolean mIncludePayload;
+    private Writer mWriter = null;
+    private long mCount = 0;
+
+    /**
+     * @param dir dead-letter directory
+     * @param name unique name of this writer (e.g. the task attempt ID)
+     * @param conf Hadoop configuration
+     * @param includePayload whether to include record payloads
+     */
+    public DeadLetterWriter(final Path dir, final String name, final Configuration conf, final boolean includePayload)
+    {
+        mFile = new Path(dir, name + ".jsonl");
+        mConf = conf;
+        mIncludePayload = includePayload;
+    }
+
+    /**
+     * Write a dead letter.
+     *
+     * @param source stage in which the record failed ({@link #SOURCE_MAP} or {@link #SOURCE_BULK})
+     * @param reason failure reason
+     * @param id input record ID (may be null)
+     * @param uuid document UUID (may be null)
+     * @param url document URL (may be null)
+     * @param payload raw record (may be null, only written if payloads are enabled)
+     * @throws IOException if the dead letter cannot be written
+     */
+    public void write(final String source, final String reason, final String id, final String uuid,
+                      final String url, final String payload) throws IOException
+    {
+        final JSONObject json = new JSONObject();
+        json.put(FIELD_SOURCE, source);
+        json.put(FIELD_REASON, reason);
+        json.putOpt(FIELD_ID, id);
+        json.putOpt(FIELD_UUID, uuid);
+        json.putOpt(FIELD_URL, url);
+        if (mIncludePayload) {
+            json.putOpt(FIELD_PAYLOAD, payload);
+        }
+
+        if (null == mWriter) {
+            final FileSystem fs = mFile.getFileSystem(mConf);
+            mWriter = new BufferedWriter(new OutputStreamWriter(fs.create(mFile, true), StandardCharsets.UTF_8));
+        }
+        mWriter.write(json.toString());
+        mWriter.write('\n');
+        ++mCount;
+    }
+
+    /**
+     * @return number of dead letters written
+     */
+    public long getCount()
+    {
+        return mCount;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (null != mWriter) {
+            mWriter.close();
+            mWriter = null;
+        }
+    }
+
+    /**
+     * Read all dead letters from a dead-letter directory.
+     *
+     * @param dir dead-letter directory
+     * @param conf Hadoop configuration
+     * @param consumer consumer for parsed dead letters
+     * @throws IOException if files cannot be read
+     */
+    public static void read(final Path dir, final Configuration conf, final Consumer<JSONObject> consumer) throws IOException
+    {
+        final FileSystem fs = dir.getFileSystem(conf);
+        final FileStatus[] files = fs.globStatus(new Path(dir, "*.jsonl"));
+        if (null == files) {
+            return;
+        }
+
+        for (final FileStatus file : files) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    fs.open(file.getPath()), StandardCharsets.UTF_8))) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    try {
+                        consumer.accept(new JSONObject(line));
+                    } catch (JSONException e) {
+                        // last line of a failed attempt may be truncated
+                        LOG.warn("Skipping invalid dead letter in " + file.getPath());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+
+import java.io.IOException;
+
+/**
+ * Output format for serialized JSON documents, which are sent to Elasticsearch by an
+ * {@link EsBulkRecordWriter} with several concurrent bulk requests per task.
+ *
+ * @author Janek Bevendorff
+ */
+public class EsBulkOutputFormat extends OutputFormat<Writable, Text>
+{
+    @Override
+    public RecordWriter<Writable, Text> getRecordWriter(final TaskAttemptContext context)
+    {
+        return new EsBulkRecordWriter(context);
+    }
+
+    @Override
+    public void checkOutputSpecs(final JobContext context) throws IOException
+    {
+        if (null == context.getConfiguration().get("es.resource")) {
+            throw new IOException("No target index configured (es.resource)");
+        }
+    }
+
+    @Override
+    public OutputCommitter getOutputCommitter(final TaskAttemptContext context)
+    {
+        // documents are visible once indexed, there is nothing to commit
+        return new NullOutputFormat<Writable, Text>().getOutputCommitter(context);
+    }
+}
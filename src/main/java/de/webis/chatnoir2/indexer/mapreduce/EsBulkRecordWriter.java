@@ -0,0 +1,474 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.chatnoir2.indexer.util.EsHttp;
+import de.webis.chatnoir2.indexer.util.EsShardRouting;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Record writer which sends JSON documents to the Elasticsearch bulk API with several bulk requests in flight.
+ *
+ * Each bulk request is sent from its own thread, so waiting for responses doesn't block the reducer. On Java 21
+ * and later, virtual threads are used, which don't tie up a platform thread per request. On older JVMs, requests
+ * are sent from a (cached) pool of platform threads instead. The number of requests in flight is bounded, so the reducer
+ * blocks once the cluster falls behind. Rejected bulk requests and documents (HTTP 429) and failed connections
+ * are retried with linear back-off. Documents rejected for other reasons are written to the dead letters if
+ * enabled and fail the task otherwise.
+ *
+ * Batch sizes, retries and connection settings are taken from the es-hadoop configuration.
+ *
+ * @author Janek Bevendorff
+ */
+public class EsBulkRecordWriter extends RecordWriter<Writable, Text> implements WarcMapReduceBase
+{
+    private static final byte[] UUID_FIELD_START = "\"uuid\":\"".getBytes(StandardCharsets.UTF_8);
+
+    private final Configuration mConf;
+    private final String[] mNodes;
+    private final String mBulkPath;
+    private final String mVersionSuffix;
+    private final int mBatchEntries;
+    private final long mBatchBytes;
+    private final int mRetries;
+    private final long mRetryWait;
+    private final int mConcurrency;
+
+    private final ExecutorService mExecutor;
+    private final Semaphore mInFlight;
+    private final AtomicInteger mNextNode;
+    private final AtomicReference<IOException> mError = new AtomicReference<>();
+    private final AtomicLong mWritten = new AtomicLong();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicLong mRetried = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final DeadLetterWriter mDeadLetters;
+
+    private final Counter mWrittenCounter;
+    private final Counter mBytesSentCounter;
+    private final Counter mRetriedCounter;
+    private final Counter mFailedCounter;
+
+    private List<byte[]> mBatch = new ArrayList<>();
+    private long mBatchSize = 0;
+
+    /**
+     * @param context task attempt context
+     */
+    public EsBulkRecordWriter(final TaskAttemptContext context)
+    {
+        mConf = context.getConfiguration();
+        final String resource = mConf.get("es.resource");
+        final String index = resource.substring(0, resource.indexOf('/') > 0 ? resource.indexOf('/') : resource.length());
+        final int taskId = context.getTaskAttemptID().getTaskID().getId();
+        mNodes = getNodes(mConf, index, taskId);
+        // start at a different node in each task, so the cluster isn't hit at the first node only
+        mNextNode = new AtomicInteger(taskId);
+        mBulkPath = index + "/_bulk";
+        final long docVersion = mConf.getLong(CONF_DOC_VERSION, -1);
+        mVersionSuffix = docVersion >= 0 ? ",\"version\":" + docVersion + ",\"version_type\":\"external_gte\"" : "";
+
+        mBatchEntries = mConf.getInt("es.batch.size.entries", 1000);
+        mBatchBytes = parseBytes(mConf.get("es.batch.size.bytes", "1mb"));
+        mRetries = mConf.getInt("es.batch.write.retry.count", 3);
+        mRetryWait = mConf.getTimeDuration("es.batch.write.retry.wait", 10, TimeUnit.SECONDS) * 1000L;
+        mConcurrency = Math.max(1, mConf.getInt(CONF_BULK_CONCURRENCY, 1));
+
+        mExecutor = newExecutor();
+        mInFlight = new Semaphore(mConcurrency);
+
+        final String deadLetterPath = mConf.get(CONF_DEAD_LETTER);
+        mDeadLetters = null != deadLetterPath ? new DeadLetterWriter(new Path(deadLetterPath),
+                "bulk-" + context.getTaskAttemptID(), mConf, mConf.getBoolean(CONF_DEAD_LETTER_PAYLOAD, false)) : null;
+
+        mWrittenCounter = context.getCounter(RecordCounters.BULK_DOCUMENTS_WRITTEN);
+        mBytesSentCounter = context.getCounter(RecordCounters.BULK_BYTES_SENT);
+        mRetriedCounter = context.getCounter(RecordCounters.BULK_DOCUMENTS_RETRIED);
+        mFailedCounter  = context.getCounter(RecordCounters.BULK_DOCUMENTS_FAILED);
+    }
+
+    @Override
+    public void write(final Writable key, final Text value) throws IOException, InterruptedException
+    {
+        checkError();
+        final byte[] action = getAction(value);
+        final byte[] entry = Arrays.copyOf(action, action.length + value.getLength() + 1);
+        System.arraycopy(value.getBytes(), 0, entry, action.length, value.getLength());
+        entry[entry.length - 1] = '\n';
+
+        mBatch.add(entry);
+        mBatchSize += entry.length;
+        if (mBatch.size() >= mBatchEntries || mBatchSize >= mBatchBytes) {
+            flush();
+        }
+    }
+
+    @Override
+    public void close(final TaskAttemptContext context) throws IOException, InterruptedException
+    {
+        try {
+            flush();
+
+            // wait for all requests in flight
+            mInFlight.acquire(mConcurrency);
+            mInFlight.release(mConcurrency);
+            mExecutor.shutdown();
+            updateCounters();
+            checkError();
+        } finally {
+            mExecutor.shutdownNow();
+            if (null != mDeadLetters) {
+                mDeadLetters.close();
+            }
+        }
+    }
+
+    /**
+     * Submit the current batch once a request slot is free.
+     */
+    private void flush() throws IOException, InterruptedException
+    {
+        if (mBatch.isEmpty()) {
+            return;
+        }
+
+        final List<byte[]> batch = mBatch;
+        mBatch = new ArrayList<>(mBatchEntries);
+        mBatchSize = 0;
+
+        mInFlight.acquire();
+        try {
+            updateCounters();
+            checkError();
+        } catch (IOException e) {
+            mInFlight.release();
+            throw e;
+        }
+        mExecutor.execute(() -> {
+            try {
+                send(batch);
+            } catch (IOException e) {
+                mError.compareAndSet(null, e);
+            } catch (RuntimeException e) {
+                mError.compareAndSet(null, new IOException("Invalid bulk response", e));
+            } catch (InterruptedException e) {
+                mError.compareAndSet(null, new IOException("Bulk request interrupted", e));
+            } finally {
+                mInFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Send one batch, retrying rejected entries.
+     *
+     * @param batch bulk entries (action and document lines)
+     */
+    private void send(List<byte[]> batch) throws IOException, InterruptedException
+    {
+        for (int attempt = 0; ; ++attempt) {
+            if (attempt > 0) {
+                Thread.sleep(mRetryWait * attempt);
+            }
+
+            final JSONObject response;
+            try {
+                response = post(batch);
+            } catch (IOException e) {
+                if (!canRetry(attempt)) {
+                    throw e;
+                }
+                LOG.warn("Bulk request failed, retrying: " + e.getMessage());
+                mRetried.addAndGet(batch.size());
+                continue;
+            }
+
+            if (!response.optBoolean("errors", false)) {
+                mWritten.addAndGet(batch.size());
+                return;
+            }
+
+            final JSONArray items = response.getJSONArray("items");
+            final List<byte[]> rejected = new ArrayList<>();
+            for (int i = 0; i < items.length(); ++i) {
+                final JSONObject item = items.getJSONObject(i).getJSONObject("index");
+                final int status = item.getInt("status");
+                if (status / 100 == 2) {
+                    mWritten.incrementAndGet();
+                } else if (status == 429 && canRetry(attempt)) {
+                    rejected.add(batch.get(i));
+                } else {
+                    fail(batch.get(i), item);
+                }
+            }
+            if (rejected.isEmpty()) {
+                return;
+            }
+            mRetried.addAndGet(rejected.size());
+            batch = rejected;
+        }
+    }
+
+    /**
+     * Create the executor for bulk requests: one virtual thread per request if the JVM supports them
+     * (Java 21+), otherwise a cached pool of daemon platform threads. The number of threads is bounded
+     * by the number of requests in flight either way.
+     *
+     * @return executor service
+     */
+    static ExecutorService newExecutor()
+    {
+        try {
+            final ExecutorService executor = (ExecutorService)
+                    Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LOG.info("Sending bulk requests from virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            LOG.info("Virtual threads not supported by this JVM, sending bulk requests from platform threads");
+            return Executors.newCachedThreadPool(r -> {
+                final Thread t = new Thread(r, "bulk-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Get the nodes to send requests to. With shard routing, each reducer receives the documents of one
+     * shard (reducer number = shard ID), so all requests are sent to the node holding its primary, unless
+     * only the configured nodes are reachable (<code>es.nodes.wan.only</code>). Otherwise, requests are
+     * distributed over all configured nodes.
+     *
+     * @param conf job configuration
+     * @param index target index
+     * @param shard shard fed by this reducer (if shard routing is enabled)
+     * @return nodes as <code>host:port</code>
+     */
+    private static String[] getNodes(final Configuration conf, final String index, final int shard)
+    {
+        if (conf.getBoolean(CONF_ES_SHARD_ROUTING, false) && !conf.getBoolean("es.nodes.wan.only", false)) {
+            try {
+                final String node = EsShardRouting.fetchPrimaryNode(conf, index, shard);
+                LOG.info(String.format("Sending bulk requests for shard %d to %s", shard, node));
+                return new String[] {node};
+            } catch (IOException e) {
+                LOG.warn("Failed to find primary node, sending bulk requests to all configured nodes: " + e.getMessage());
+            }
+        }
+        return EsHttp.getNodes(conf);
+    }
+
+    /**
+     * Check whether a failed batch may be retried. Negative retry counts allow unlimited retries
+     * (same as in es-hadoop).
+     *
+     * @param attempt number of the attempt which failed (starting at 0)
+     * @return whether another attempt may be made
+     */
+    private boolean canRetry(final int attempt)
+    {
+        return mRetries < 0 || attempt < mRetries;
+    }
+
+    /**
+     * POST a batch to the bulk API. Requests are sent to the configured nodes in turn.
+     *
+     * @param batch bulk entries
+     * @return parsed bulk response
+     * @throws IOException on connection errors and rejected or failed requests
+     */
+    private JSONObject post(final List<byte[]> batch) throws IOException
+    {
+        final HttpURLConnection connection = EsHttp.open(mConf, mNodes[Math.floorMod(mNextNode.getAndIncrement(), mNodes.length)], "POST", mBulkPath);
+        connection.setDoOutput(true);
+        connection.setReadTimeout((int) mConf.getTimeDuration("es.http.timeout", 60, TimeUnit.SECONDS) * 1000);
+        connection.setRequestProperty("Content-Type", "application/x-ndjson");
+        try (OutputStream os = connection.getOutputStream()) {
+            for (final byte[] entry : batch) {
+                os.write(entry);
+                mBytesSent.addAndGet(entry.length);
+            }
+        }
+
+        final int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            connection.disconnect();
+            throw new IOException("Bulk request failed with HTTP " + status);
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream is = connection.getInputStream()) {
+            final byte[] b = new byte[65536];
+            int read;
+            while ((read = is.read(b)) > 0) {
+                buffer.write(b, 0, read);
+            }
+        }
+        return new JSONObject(buffer.toString("UTF-8"));
+    }
+
+    /**
+     * Handle a document which could not be indexed.
+     *
+     * @param entry bulk entry
+     * @param item bulk response item
+     */
+    private void fail(final byte[] entry, final JSONObject item) throws IOException
+    {
+        mFailed.incrementAndGet();
+        final String reason = item.has("error") ? item.get("error").toString() : "HTTP " + item.getInt("status");
+        if (null == mDeadLetters) {
+            throw new IOException("Document " + item.optString("_id") + " could not be indexed: " + reason);
+        }
+
+        final int actionEnd = indexOf(entry, (byte) '\n', 0);
+        synchronized (mDeadLetters) {
+            mDeadLetters.write(DeadLetterWriter.SOURCE_BULK, reason, null, item.optString("_id", null), null,
+                    new String(entry, actionEnd + 1, entry.length - actionEnd - 2, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Build the bulk action line for a document. The document ID is taken from its <code>uuid</code> field,
+     * which is found with a plain byte search, since a quote followed by the field name can only occur
+     * as an actual top-level key in valid serialized JSON.
+     *
+     * @param document serialized JSON document
+     * @return action line including trailing newline
+     */
+    private byte[] getAction(final Text document) throws IOException
+    {
+        final byte[] bytes = document.getBytes();
+        final int length = document.getLength();
+        int pos = 0;
+        while ((pos = indexOf(bytes, UUID_FIELD_START, pos, length)) >= 0 &&
+                pos > 0 && bytes[pos - 1] != '{' && bytes[pos - 1] != ',') {
+            ++pos;
+        }
+        if (pos < 0) {
+            throw new IOException("Document has no UUID");
+        }
+        final int idStart = pos + UUID_FIELD_START.length;
+        final int idEnd = indexOf(bytes, (byte) '"', idStart);
+        final String id = new String(bytes, idStart, idEnd - idStart, StandardCharsets.UTF_8);
+        return ("{\"index\":{\"_id\":\"" + id + "\"" + mVersionSuffix + "}}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Throw the first error of a failed bulk request.
+     */
+    private void checkError() throws IOException
+    {
+        final IOException error = mError.get();
+        if (null != error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Transfer counts from the sending threads to the task counters.
+     */
+    private void updateCounters()
+    {
+        mWrittenCounter.increment(mWritten.getAndSet(0));
+        mBytesSentCounter.increment(mBytesSent.getAndSet(0));
+        mRetriedCounter.increment(mRetried.getAndSet(0));
+        mFailedCounter.increment(mFailed.getAndSet(0));
+    }
+
+    private static int indexOf(final byte[] bytes, final byte b, final int from)
+    {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(final byte[] bytes, final byte[] pattern, final int from, final int length)
+    {
+        outer:
+        for (int i = from; i <= length - pattern.length; ++i) {
+            for (int j = 0; j < pattern.length; ++j) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parse an es-hadoop byte size (e.g. <code>2mb</code>).
+     *
+     * @param size byte size string
+     * @return number of bytes
+     */
+    static long parseBytes(String size)
+    {
+        size = size.trim().toLowerCase();
+        long factor = 1;
+        if (size.endsWith("kb")) {
+            factor = 1024;
+        } else if (size.endsWith("mb")) {
+            factor = 1024 * 1024;
+        } else if (size.endsWith("gb")) {
+            factor = 1024 * 1024 * 1024;
+        }
+        if (factor > 1) {
+            size = size.substring(0, size.length() - 2);
+        } else if (size.endsWith("b")) {
+            size = size.substring(0, size.length() - 1);
+        }
+        return (long) (Double.parseDouble(size.trim()) * factor);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.chatnoir2.indexer.util.EsShardRouting;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import java.nio.CharBuffer;
+
+/**
+ * Partitioner which assigns map outputs to the reduce partition whose number matches the
+ * Elasticsearch shard the resulting document will be routed to. With as many reducers as
+ * there are primary shards, each reducer thus feeds exactly one shard.
+ *
+ * Shard routing requires the join key to be the document UUID, which is only the case in ID join mode.
+ * In URL join mode, keys are partitioned by their hash code instead.
+ *
+ * @author Janek Bevendorff
+ */
+public class EsShardPartitioner extends Partitioner<JoinKeyWritable, MapWritable> implements Configurable, WarcMapReduceBase
+{
+    private Configuration mConf;
+    private boolean mRoutingEnabled;
+    private int mNumShards;
+    private int mRoutingShards;
+
+    private final char[] mUUIDChars = new char[36];
+    private final CharBuffer mUUIDBuffer = CharBuffer.wrap(mUUIDChars);
+
+    @Override
+    public void setConf(final Configuration conf)
+    {
+        mConf           = conf;
+        mRoutingEnabled = JoinKeyFactory.getJoinMode(conf) == JoinKeyFactory.JoinMode.ID;
+        mNumShards      = conf.getInt(CONF_ES_SHARDS, 1);
+        mRoutingShards  = conf.getInt(CONF_ES_ROUTING_SHARDS, EsShardRouting.defaultRoutingShards(mNumShards));
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return mConf;
+    }
+
+    @Override
+    public int getPartition(final JoinKeyWritable key, final MapWritable value, final int numPartitions)
+    {
+        if (!mRoutingEnabled) {
+            return (key.hashCode() & Integer.MAX_VALUE) % numPartitions;
+        }
+
+        key.toChars(mUUIDChars);
+        return EsShardRouting.shardId(mUUIDBuffer, mNumShards, mRoutingShards) % numPartitions;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.chatnoir2.indexer.util.AnchorRecordParser;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Host statistics pre-pass mapper for anchor texts, which counts one inlink per anchor record.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsAnchorMapper extends Mapper<LongWritable, Text, JoinKeyWritable, HostStatsWritable> implements WarcMapReduceBase
+{
+    protected final HostStatsWritable mStats = new HostStatsWritable();
+    protected AnchorRecordParser mParser;
+    protected JoinKeyFactory mKeyFactory;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        mParser = new AnchorRecordParser(AnchorRecordParser.IdScheme.fromName(
+                context.getConfiguration().get(CONF_ANCHOR_ID_SCHEME, "trec_id")), WarcAnchorMapper.MAX_LENGTH);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+    }
+
+    @Override
+    public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
+    {
+        if (!mParser.parse(value) || !mKeyFactory.set(MAPREDUCE_KEY,
+                Text.decode(mParser.getBytes(), mParser.getIdStart(), mParser.getIdLength()))) {
+            return;
+        }
+
+        mStats.clear();
+        mStats.setInlinkCount(1);
+        MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_ANCHORS);
+        context.write(MAPREDUCE_KEY, mStats);
+    }
+}
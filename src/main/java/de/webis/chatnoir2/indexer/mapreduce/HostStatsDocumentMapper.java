@@ -0,0 +1,101 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Host statistics pre-pass mapper for WARC JSON records, which emits the host name
+ * and a page count of one for each record of an allowed WARC type.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsDocumentMapper extends Mapper<Text, Text, JoinKeyWritable, HostStatsWritable> implements WarcMapReduceBase
+{
+    protected final HostStatsWritable mStats = new HostStatsWritable();
+    protected JoinKeyFactory mKeyFactory;
+    protected Set<String> mWarcTypes;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+        mWarcTypes = WarcHeaderRecordFilter.getAllowedWarcTypes(context.getConfiguration());
+    }
+
+    @Override
+    public void map(final Text key, final Text value, final Context context) throws IOException, InterruptedException
+    {
+        try {
+            final JSONObject metadata = new JSONObject(value.toString()).getJSONObject(INPUT_METADATA_KEY);
+
+            String recordId = null;
+            String trecId = null;
+            String targetUri = null;
+            final Iterator it = metadata.keys();
+            while (it.hasNext()) {
+                final String k = (String) it.next();
+                if (k.equalsIgnoreCase("WARC-Type") && !mWarcTypes.contains(metadata.getString(k))) {
+                    return;
+                } else if (k.equalsIgnoreCase("WARC-Record-ID")) {
+                    recordId = metadata.getString(k);
+                } else if (k.equalsIgnoreCase("WARC-TREC-ID")) {
+                    trecId = metadata.getString(k);
+                } else if (k.equalsIgnoreCase("WARC-Target-URI")) {
+                    targetUri = metadata.getString(k);
+                }
+            }
+            if (null == targetUri) {
+                return;
+            }
+
+            final String host = new URI(targetUri).getHost();
+            final String rawKey = mKeyFactory.getMode() == JoinKeyFactory.JoinMode.URL ? targetUri :
+                    (null != trecId ? trecId : recordId);
+            if (null == host || null == rawKey || !mKeyFactory.set(MAPREDUCE_KEY, rawKey)) {
+                return;
+            }
+
+            mStats.clear();
+            mStats.setHost(host.toLowerCase());
+            mStats.setPageCount(1);
+            MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_DOCUMENT);
+            context.write(MAPREDUCE_KEY, mStats);
+        } catch (JSONException | URISyntaxException ignored) {
+            // malformed records are counted by the indexing job
+        }
+    }
+}
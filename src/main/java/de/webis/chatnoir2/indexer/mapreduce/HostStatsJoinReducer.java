@@ -0,0 +1,60 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+/**
+ * Host statistics pre-pass reducer, which joins per-document statistics with the document's
+ * host name and emits them keyed by host hash. Statistics of documents that are not part of
+ * the corpus (and therefore have no host) are dropped.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsJoinReducer extends Reducer<JoinKeyWritable, HostStatsWritable, LongWritable, HostStatsWritable>
+{
+    protected final HostStatsWritable mStats = new HostStatsWritable();
+    protected final LongWritable mHostHash = new LongWritable();
+
+    @Override
+    public void reduce(final JoinKeyWritable key, final Iterable<HostStatsWritable> values, final Context context) throws IOException, InterruptedException
+    {
+        mStats.clear();
+        for (final HostStatsWritable value : values) {
+            mStats.merge(value);
+        }
+        if (mStats.getHost().getLength() == 0) {
+            return;
+        }
+
+        mHostHash.set(HostStatsStore.hostHash(mStats.getHost().toString()));
+        mStats.getHost().clear();
+        context.write(mHostHash, mStats);
+    }
+}
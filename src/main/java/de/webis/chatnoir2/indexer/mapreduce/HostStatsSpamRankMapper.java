@@ -0,0 +1,77 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Host statistics pre-pass mapper for spam rankings.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsSpamRankMapper extends Mapper<LongWritable, Text, JoinKeyWritable, HostStatsWritable> implements WarcMapReduceBase
+{
+    protected final HostStatsWritable mStats = new HostStatsWritable();
+    protected JoinKeyFactory mKeyFactory;
+    protected Counter mMalformedCounter;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+        mMalformedCounter = context.getCounter(RecordCounters.SKIPPED_SPAM_RANKS_MALFORMED);
+    }
+
+    @Override
+    public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
+    {
+        final String[] parts = value.toString().split("\\s+");
+        final long spamRank;
+        try {
+            if (parts.length < 2) {
+                throw new NumberFormatException("Missing ID");
+            }
+            spamRank = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            mMalformedCounter.increment(1);
+            return;
+        }
+        if (!mKeyFactory.set(MAPREDUCE_KEY, parts[1])) {
+            return;
+        }
+
+        mStats.clear();
+        mStats.addSpamRank(spamRank);
+        MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_SCORES);
+        context.write(MAPREDUCE_KEY, mStats);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact in-memory store of per-host statistics keyed by a 64-bit host name hash.
+ * Statistics are held in sorted parallel primitive arrays, so a host costs 20 bytes
+ * of heap and lookups are a binary search.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsStore
+{
+    private long[] mHashes;
+    private int[] mPageCounts;
+    private int[] mInlinkCounts;
+    private float[] mAvgSpamRanks;
+    private int mSize = 0;
+
+    private HostStatsStore(final int capacity)
+    {
+        mHashes       = new long[capacity];
+        mPageCounts   = new int[capacity];
+        mInlinkCounts = new int[capacity];
+        mAvgSpamRanks = new float[capacity];
+    }
+
+    /**
+     * Load host statistics from the SequenceFile output of the host statistics pre-pass.
+     *
+     * @param dir output directory of the pre-pass
+     * @param conf job configuration
+     * @return loaded store
+     * @throws IOException if files cannot be read
+     */
+    public static HostStatsStore load(final Path dir, final Configuration conf) throws IOException
+    {
+        final FileSystem fs = dir.getFileSystem(conf);
+        final FileStatus[] files = fs.globStatus(new Path(dir, "part-*"));
+
+        final HostStatsStore store = new HostStatsStore(1024);
+        final LongWritable key = new LongWritable();
+        final HostStatsWritable value = new HostStatsWritable();
+        for (final FileStatus file : files) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+                while (reader.next(key, value)) {
+                    store.add(key.get(), value);
+                }
+            }
+        }
+        store.sort(0, store.mSize - 1);
+
+        return store;
+    }
+
+    /**
+     * Calculate 64-bit FNV-1a hash of a lower-cased host name.
+     *
+     * @param host host name
+     * @return host hash
+     */
+    public static long hostHash(final String host)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < host.length(); ++i) {
+            hash ^= Character.toLowerCase(host.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Find the index of a host.
+     *
+     * @param host host name
+     * @return index for use with the getters or -1 if the host is unknown
+     */
+    public int find(final String host)
+    {
+        final int index = Arrays.binarySearch(mHashes, 0, mSize, hostHash(host));
+        return index >= 0 ? index : -1;
+    }
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    public int getPageCount(final int index)
+    {
+        return mPageCounts[index];
+    }
+
+    public int getInlinkCount(final int index)
+    {
+        return mInlinkCounts[index];
+    }
+
+    /**
+     * @return average spam rank of host or a negative number if unknown
+     */
+    public float getAvgSpamRank(final int index)
+    {
+        return mAvgSpamRanks[index];
+    }
+
+    private void add(final long hash, final HostStatsWritable stats)
+    {
+        if (mSize == mHashes.length) {
+            final int capacity = mSize + (mSize >> 1);
+            mHashes       = Arrays.copyOf(mHashes, capacity);
+            mPageCounts   = Arrays.copyOf(mPageCounts, capacity);
+            mInlinkCounts = Arrays.copyOf(mInlinkCounts, capacity);
+            mAvgSpamRanks = Arrays.copyOf(mAvgSpamRanks, capacity);
+        }
+        mHashes[mSize]       = hash;
+        mPageCounts[mSize]   = (int) Math.min(Integer.MAX_VALUE, stats.getPageCount());
+        mInlinkCounts[mSize] = (int) Math.min(Integer.MAX_VALUE, stats.getInlinkCount());
+        mAvgSpamRanks[mSize] = stats.getAverageSpamRank();
+        ++mSize;
+    }
+
+    /**
+     * Quicksort all parallel arrays by hash.
+     */
+    private void sort(int lo, int hi)
+    {
+        while (lo < hi) {
+            final long pivot = mHashes[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (mHashes[i] < pivot) {
+                    ++i;
+                }
+                while (mHashes[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            // recurse into smaller partition to bound stack depth
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private void swap(final int i, final int j)
+    {
+        final long hash = mHashes[i];
+        mHashes[i] = mHashes[j];
+        mHashes[j] = hash;
+
+        final int pageCount = mPageCounts[i];
+        mPageCounts[i] = mPageCounts[j];
+        mPageCounts[j] = pageCount;
+
+        final int inlinkCount = mInlinkCounts[i];
+        mInlinkCounts[i] = mInlinkCounts[j];
+        mInlinkCounts[j] = inlinkCount;
+
+        final float spamRank = mAvgSpamRanks[i];
+        mAvgSpamRanks[i] = mAvgSpamRanks[j];
+        mAvgSpamRanks[j] = spamRank;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Partial or aggregated per-host statistics.
+ *
+ * @author Janek Bevendorff
+ */
+public class HostStatsWritable implements Writable
+{
+    private final Text mHost = new Text();
+    private long mPageCount;
+    private long mInlinkCount;
+    private long mSpamRankSum;
+    private long mSpamRankCount;
+
+    /**
+     * Reset all values.
+     */
+    public void clear()
+    {
+        mHost.clear();
+        mPageCount = 0;
+        mInlinkCount = 0;
+        mSpamRankSum = 0;
+        mSpamRankCount = 0;
+    }
+
+    /**
+     * Add values of another instance to this one. The host name is taken
+     * from the other instance if this instance has none.
+     *
+     * @param other other statistics
+     */
+    public void merge(final HostStatsWritable other)
+    {
+        if (mHost.getLength() == 0 && other.mHost.getLength() > 0) {
+            mHost.set(other.mHost);
+        }
+        mPageCount     += other.mPageCount;
+        mInlinkCount   += other.mInlinkCount;
+        mSpamRankSum   += other.mSpamRankSum;
+        mSpamRankCount += other.mSpamRankCount;
+    }
+
+    public Text getHost()
+    {
+        return mHost;
+    }
+
+    public void setHost(final String host)
+    {
+        mHost.set(host);
+    }
+
+    public long getPageCount()
+    {
+        return mPageCount;
+    }
+
+    public void setPageCount(final long pageCount)
+    {
+        mPageCount = pageCount;
+    }
+
+    public long getInlinkCount()
+    {
+        return mInlinkCount;
+    }
+
+    public void setInlinkCount(final long inlinkCount)
+    {
+        mInlinkCount = inlinkCount;
+    }
+
+    /**
+     * Add a single spam rank.
+     *
+     * @param spamRank spam rank to add
+     */
+    public void addSpamRank(final long spamRank)
+    {
+        mSpamRankSum += spamRank;
+        ++mSpamRankCount;
+    }
+
+    public long getSpamRankCount()
+    {
+        return mSpamRankCount;
+    }
+
+    /**
+     * @return average spam rank or -1 if no spam ranks were added
+     */
+    public float getAverageSpamRank()
+    {
+        return mSpamRankCount > 0 ? (float) mSpamRankSum / mSpamRankCount : -1.0f;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException
+    {
+        mHost.write(out);
+        WritableUtils.writeVLong(out, mPageCount);
+        WritableUtils.writeVLong(out, mInlinkCount);
+        WritableUtils.writeVLong(out, mSpamRankSum);
+        WritableUtils.writeVLong(out, mSpamRankCount);
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException
+    {
+        mHost.readFields(in);
+        mPageCount     = WritableUtils.readVLong(in);
+        mInlinkCount   = WritableUtils.readVLong(in);
+        mSpamRankSum   = WritableUtils.readVLong(in);
+        mSpamRankCount = WritableUtils.readVLong(in);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.WebisUUID;
+import de.webis.chatnoir2.indexer.util.UrlCanonicalizer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Factory for generating join keys from document IDs or URLs according to the configured join mode.
+ *
+ * @author Janek Bevendorff
+ */
+public class JoinKeyFactory implements WarcMapReduceBase
+{
+    /**
+     * How documents and auxiliary inputs are joined.
+     */
+    public enum JoinMode {
+        /**
+         * Join by TREC ID or WARC record ID.
+         */
+        ID,
+
+        /**
+         * Join by canonicalized target URL.
+         */
+        URL
+    }
+
+    private final String mUUIDPrefix;
+    private final JoinMode mMode;
+    private final double mSampleFraction;
+    private final Set<UUID> mReplayKeys;
+
+    private static String REPLAY_PATH = null;
+    private static Set<UUID> REPLAY_KEYS = null;
+
+    /**
+     * @param conf job configuration
+     * @throws IOException if dead letters to replay cannot be read
+     */
+    public JoinKeyFactory(final Configuration conf) throws IOException
+    {
+        mUUIDPrefix = conf.get(CONF_UUID_PREFIX);
+        mMode = getJoinMode(conf);
+        mSampleFraction = conf.getDouble(CONF_SAMPLE_FRACTION, 1.0);
+        mReplayKeys = null != conf.get(CONF_REPLAY) ? loadReplayKeys(conf) : null;
+    }
+
+    /**
+     * Load the join keys of all dead letters to replay. Keys are cached, since all mappers
+     * of a task JVM need the same set.
+     */
+    private Set<UUID> loadReplayKeys(final Configuration conf) throws IOException
+    {
+        synchronized (JoinKeyFactory.class) {
+            final String path = conf.get(CONF_REPLAY);
+            if (null != REPLAY_KEYS && path.equals(REPLAY_PATH)) {
+                return REPLAY_KEYS;
+            }
+
+            final Set<UUID> keys = new HashSet<>();
+            final JoinKeyWritable key = new JoinKeyWritable();
+            DeadLetterWriter.read(new Path(path), conf, deadLetter -> {
+                final String url = deadLetter.optString(DeadLetterWriter.FIELD_URL, null);
+                final String uuid = deadLetter.optString(DeadLetterWriter.FIELD_UUID, null);
+                final String id = deadLetter.optString(DeadLetterWriter.FIELD_ID, null);
+                if (mMode == JoinMode.URL) {
+                    if (null != url && set(key, url)) {
+                        keys.add(new UUID(key.getMostSignificantBits(), key.getLeastSignificantBits()));
+                    }
+                } else if (null != uuid) {
+                    keys.add(UUID.fromString(uuid));
+                } else if (null != id) {
+                    // record failed before its ID headers were parsed, assume the input key is the document ID
+                    keys.add(WebisUUID.generateUUID(mUUIDPrefix, id));
+                }
+            });
+            LOG.info("Loaded " + keys.size() + " keys to replay");
+
+            REPLAY_PATH = path;
+            REPLAY_KEYS = keys;
+            return keys;
+        }
+    }
+
+    /**
+     * Get configured join mode.
+     *
+     * @param conf job configuration
+     * @return join mode
+     */
+    public static JoinMode getJoinMode(final Configuration conf)
+    {
+        return JoinMode.valueOf(conf.get(CONF_JOIN_MODE, "id").trim().toUpperCase());
+    }
+
+    public JoinMode getMode()
+    {
+        return mMode;
+    }
+
+    /**
+     * Set join key from a raw input key, which is a document ID in ID mode and a URL in URL mode.
+     *
+     * @param target key to set
+     * @param rawKey document ID or URL
+     * @return false if the raw key is not a valid URL in URL mode
+     */
+    public boolean set(final JoinKeyWritable target, final String rawKey)
+    {
+        if (mMode == JoinMode.URL) {
+            final String url = UrlCanonicalizer.canonicalize(rawKey);
+            if (null == url) {
+                return false;
+            }
+            target.set(WebisUUID.generateUUID(mUUIDPrefix, url));
+        } else {
+            target.set(WebisUUID.generateUUID(mUUIDPrefix, rawKey));
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a key is part of the configured deterministic sample. Since the decision depends
+     * only on the key, documents are sampled together with their ranks and anchors. The sample is
+     * independent of the UUID-based per-host document limit.
+     *
+     * When replaying dead letters, only their keys are part of the sample.
+     *
+     * @param key join key
+     * @return true if the key is sampled (always true if no sample fraction is configured)
+     */
+    public boolean isSampled(final JoinKeyWritable key)
+    {
+        if (null != mReplayKeys && !mReplayKeys.contains(
+                new UUID(key.getMostSignificantBits(), key.getLeastSignificantBits()))) {
+            return false;
+        }
+        return mSampleFraction >= 1.0 || (key.getMostSignificantBits() >>> 11) * 0x1.0p-53 < mSampleFraction;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Fixed-width binary UUID key by which documents and auxiliary inputs (ranks, anchors)
+ * are joined in the shuffle phase.
+ *
+ * Keys also carry the type of the record they belong to, which is used as a secondary sort
+ * criterion, so that a reducer sees the document record of a key before its scores and anchors.
+ * Keys are grouped by UUID only with {@link GroupingComparator}.
+ *
+ * @author Janek Bevendorff
+ */
+public class JoinKeyWritable implements WritableComparable<JoinKeyWritable>
+{
+    /**
+     * Serialized size of the UUID part in bytes.
+     */
+    public static final int UUID_SIZE = 16;
+
+    /**
+     * Serialized size in bytes.
+     */
+    public static final int SIZE = UUID_SIZE + 1;
+
+    /**
+     * Record type of WARC documents.
+     */
+    public static final byte TYPE_DOCUMENT = 0;
+
+    /**
+     * Record type of page ranks and spam ranks.
+     */
+    public static final byte TYPE_SCORES = 1;
+
+    /**
+     * Record type of anchor texts.
+     */
+    public static final byte TYPE_ANCHORS = 2;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private long mMostSigBits;
+    private long mLeastSigBits;
+    private byte mRecordType = TYPE_DOCUMENT;
+
+    static {
+        WritableComparator.define(JoinKeyWritable.class, new Comparator());
+    }
+
+    public JoinKeyWritable()
+    {
+    }
+
+    /**
+     * Set key from UUID.
+     *
+     * @param uuid key UUID
+     */
+    public void set(final UUID uuid)
+    {
+        mMostSigBits  = uuid.getMostSignificantBits();
+        mLeastSigBits = uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Set key from another key.
+     *
+     * @param other key to copy
+     */
+    public void set(final JoinKeyWritable other)
+    {
+        mMostSigBits  = other.mMostSigBits;
+        mLeastSigBits = other.mLeastSigBits;
+        mRecordType   = other.mRecordType;
+    }
+
+    /**
+     * Set the type of the record this key belongs to.
+     *
+     * @param recordType one of the <code>TYPE_*</code> constants
+     */
+    public void setRecordType(final byte recordType)
+    {
+        mRecordType = recordType;
+    }
+
+    public byte getRecordType()
+    {
+        return mRecordType;
+    }
+
+    public long getMostSignificantBits()
+    {
+        return mMostSigBits;
+    }
+
+    public long getLeastSignificantBits()
+    {
+        return mLeastSigBits;
+    }
+
+    /**
+     * Write the canonical 36-character UUID string representation into a char array.
+     *
+     * @param target target array of at least 36 characters
+     */
+    public void toChars(final char[] target)
+    {
+        writeHex(target, 0,  mMostSigBits >>> 32, 8);
+        target[8] = '-';
+        writeHex(target, 9,  mMostSigBits >>> 16, 4);
+        target[13] = '-';
+        writeHex(target, 14, mMostSigBits, 4);
+        target[18] = '-';
+        writeHex(target, 19, mLeastSigBits >>> 48, 4);
+        target[23] = '-';
+        writeHex(target, 24, mLeastSigBits, 12);
+    }
+
+    private static void writeHex(final char[] target, final int offset, long value, final int numDigits)
+    {
+        for (int i = offset + numDigits - 1; i >= offset; --i) {
+            target[i] = HEX_DIGITS[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException
+    {
+        out.writeLong(mMostSigBits);
+        out.writeLong(mLeastSigBits);
+        out.writeByte(mRecordType);
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException
+    {
+        mMostSigBits  = in.readLong();
+        mLeastSigBits = in.readLong();
+        mRecordType   = in.readByte();
+    }
+
+    @Override
+    public int compareTo(final JoinKeyWritable other)
+    {
+        final int cmp = compareUUID(other);
+        return cmp != 0 ? cmp : Byte.compare(mRecordType, other.mRecordType);
+    }
+
+    /**
+     * Compare only the UUID part of two keys.
+     *
+     * @param other key to compare to
+     * @return comparison result
+     */
+    public int compareUUID(final JoinKeyWritable other)
+    {
+        final int cmp = Long.compareUnsigned(mMostSigBits, other.mMostSigBits);
+        return cmp != 0 ? cmp : Long.compareUnsigned(mLeastSigBits, other.mLeastSigBits);
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (!(other instanceof JoinKeyWritable)) {
+            return false;
+        }
+        final JoinKeyWritable o = (JoinKeyWritable) other;
+        return mMostSigBits == o.mMostSigBits && mLeastSigBits == o.mLeastSigBits && mRecordType == o.mRecordType;
+    }
+
+    /**
+     * Hash code of the UUID part, so that all records of a document end up in the same partition.
+     */
+    @Override
+    public int hashCode()
+    {
+        final long h = mMostSigBits ^ mLeastSigBits;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString()
+    {
+        final char[] chars = new char[36];
+        toChars(chars);
+        return new String(chars);
+    }
+
+    /**
+     * Raw comparator operating directly on the serialized bytes.
+     */
+    public static class Comparator extends WritableComparator
+    {
+        public Comparator()
+        {
+            super(JoinKeyWritable.class);
+        }
+
+        @Override
+        public int compare(final byte[] b1, final int s1, final int l1, final byte[] b2, final int s2, final int l2)
+        {
+            return compareBytes(b1, s1, SIZE, b2, s2, SIZE);
+        }
+    }
+
+    /**
+     * Comparator for grouping reduce inputs by UUID regardless of their record type.
+     */
+    public static class GroupingComparator extends WritableComparator
+    {
+        public GroupingComparator()
+        {
+            super(JoinKeyWritable.class);
+        }
+
+        @Override
+        public int compare(final byte[] b1, final int s1, final int l1, final byte[] b2, final int s2, final int l2)
+        {
+            return compareBytes(b1, s1, UUID_SIZE, b2, s2, UUID_SIZE);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int compare(final WritableComparable a, final WritableComparable b)
+        {
+            return ((JoinKeyWritable) a).compareUUID((JoinKeyWritable) b);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Quarantine for input records which crash or hang a map task.
+ *
+ * The mapper announces each record before processing it. If processing fails with an {@link Error}
+ * (e.g. a stack overflow in a parser) or takes longer than the configured timeout, a marker with the
+ * record key is written to HDFS, named after the task attempt. Hung records are detected by a watchdog
+ * thread, so the marker exists by the time the attempt is killed for not reporting progress. Markers of
+ * records which finish after all are removed again. Retried attempts of the same task load the markers
+ * of all previous attempts and skip these records.
+ *
+ * Nothing is written for records which are processed normally, so the quarantine doesn't cost an
+ * HDFS operation per record.
+ *
+ * @author Janek Bevendorff
+ */
+public class RecordQuarantine implements Closeable, WarcMapReduceBase
+{
+    /**
+     * Marker subdirectory of the quarantine directory.
+     */
+    public static final String MARKER_DIR = "_markers";
+
+    private final FileSystem mFs;
+    private final Path mMarkerFile;
+    private final long mTimeout;
+    private final Map<String, String> mQuarantined = new HashMap<>();
+    private final Thread mWatchdog;
+
+    private String mCurrentKey = null;
+    private long mCurrentStart = 0;
+    private boolean mMarked = false;
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param dir quarantine directory
+     * @param context task attempt context
+     * @param timeout processing time in milliseconds after which a record is considered hung
+     *                (hung records are not detected if zero or negative)
+     * @throws IOException if markers of previous attempts cannot be read
+     */
+    public RecordQuarantine(final Path dir, final TaskAttemptContext context, final long timeout) throws IOException
+    {
+        final Configuration conf = context.getConfiguration();
+        final TaskAttemptID attemptId = context.getTaskAttemptID();
+        final Path markerDir = new Path(dir, MARKER_DIR);
+        mFs = markerDir.getFileSystem(conf);
+        mMarkerFile = new Path(markerDir, attemptId.getTaskID() + "_" + attemptId.getId());
+        mTimeout = timeout;
+
+        if (attemptId.getId() > 0) {
+            loadMarkers(new Path(markerDir, attemptId.getTaskID() + "_*"));
+        }
+
+        if (mTimeout > 0) {
+            mWatchdog = new Thread(this::watch, "record-quarantine-watchdog");
+            mWatchdog.setDaemon(true);
+            mWatchdog.start();
+        } else {
+            mWatchdog = null;
+        }
+    }
+
+    /**
+     * Load record keys from markers of previous attempts.
+     *
+     * @param pattern marker file glob
+     */
+    private void loadMarkers(final Path pattern) throws IOException
+    {
+        final FileStatus[] markers = mFs.globStatus(pattern);
+        if (null == markers) {
+            return;
+        }
+        for (final FileStatus marker : markers) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    mFs.open(marker.getPath()), StandardCharsets.UTF_8))) {
+                final String line = reader.readLine();
+                if (null == line) {
+                    continue;
+                }
+                final int tab = line.indexOf('\t');
+                mQuarantined.put(tab >= 0 ? line.substring(0, tab) : line, tab >= 0 ? line.substring(tab + 1) : "");
+            }
+        }
+        if (!mQuarantined.isEmpty()) {
+            LOG.warn("Quarantined records from previous attempts: " + mQuarantined.keySet());
+        }
+    }
+
+    /**
+     * Get the reason why a record was quarantined by a previous attempt.
+     *
+     * @param key record key
+     * @return failure reason or null if the record is not quarantined
+     */
+    public String getQuarantineReason(final String key)
+    {
+        return mQuarantined.isEmpty() ? null : mQuarantined.get(key);
+    }
+
+    /**
+     * Announce that processing of a record starts.
+     *
+     * @param key record key
+     */
+    public synchronized void begin(final String key)
+    {
+        mCurrentKey = key;
+        mCurrentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Announce that processing of the current record has finished (successfully or with a handled error).
+     */
+    public synchronized void end()
+    {
+        if (mMarked) {
+            LOG.info("Record " + mCurrentKey + " finished after all, removing quarantine marker");
+            try {
+                mFs.delete(mMarkerFile, false);
+            } catch (IOException e) {
+                LOG.warn("Failed to remove quarantine marker: " + e.getMessage());
+            }
+            mMarked = false;
+        }
+        mCurrentKey = null;
+    }
+
+    /**
+     * Quarantine the current record after an unrecoverable error. The task is expected to fail afterwards.
+     *
+     * @param error error thrown while processing the record
+     */
+    public synchronized void fail(final Throwable error)
+    {
+        if (null != mCurrentKey) {
+            mark("error: " + error);
+        }
+    }
+
+    /**
+     * Write the marker for the current record. Failures are only logged, since the attempt is
+     * going to fail anyway.
+     *
+     * @param reason failure reason
+     */
+    private void mark(final String reason)
+    {
+        try (FSDataOutputStream out = mFs.create(mMarkerFile, true)) {
+            out.write((mCurrentKey + "\t" + reason.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+            out.hsync();
+            mMarked = true;
+            LOG.error("Quarantined record " + mCurrentKey + " (" + reason + ")");
+        } catch (IOException e) {
+            LOG.error("Failed to write quarantine marker for record " + mCurrentKey + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Watchdog loop which quarantines the current record once it exceeds the timeout.
+     */
+    private void watch()
+    {
+        while (!mClosed) {
+            try {
+                Thread.sleep(Math.min(1000, Math.max(10, mTimeout / 10)));
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                if (null != mCurrentKey && !mMarked && System.currentTimeMillis() - mCurrentStart > mTimeout) {
+                    mark("timeout: no result after " + (mTimeout / 1000) + "s");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        mClosed = true;
+        if (null != mWatchdog) {
+            mWatchdog.interrupt();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.chatnoir2.indexer.util.KeyBloomFilter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import java.io.IOException;
+
+/**
+ * Pre-pass mapper which builds a Bloom filter of all keys whose spam rank is at or above
+ * the configured threshold. Each mapper emits one partial filter for its split, which are
+ * merged into a single filter by one {@link SpamFilterReducer}.
+ *
+ * @author Janek Bevendorff
+ */
+public class SpamFilterMapper extends Mapper<LongWritable, Text, NullWritable, KeyBloomFilter> implements WarcMapReduceBase
+{
+    protected JoinKeyFactory mKeyFactory;
+    protected KeyBloomFilter mFilter;
+    protected long mThreshold;
+    protected Counter mMalformedCounter;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        final Configuration conf = context.getConfiguration();
+        mKeyFactory = new JoinKeyFactory(conf);
+        mThreshold = conf.getLong(CONF_SPAM_THRESHOLD, 0);
+        mMalformedCounter = context.getCounter(RecordCounters.SKIPPED_SPAM_RANKS_MALFORMED);
+        mFilter = new KeyBloomFilter(conf.getLong(CONF_SPAM_FILTER_BITS, 64), conf.getInt(CONF_SPAM_FILTER_HASHES, 1));
+    }
+
+    @Override
+    public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
+    {
+        final String[] parts = value.toString().split("\\s+");
+        final long spamRank;
+        try {
+            if (parts.length < 2) {
+                throw new NumberFormatException("Missing ID");
+            }
+            spamRank = Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            mMalformedCounter.increment(1);
+            return;
+        }
+        if (spamRank < mThreshold || !mKeyFactory.set(MAPREDUCE_KEY, parts[1])) {
+            return;
+        }
+
+        mFilter.add(MAPREDUCE_KEY.getMostSignificantBits(), MAPREDUCE_KEY.getLeastSignificantBits());
+    }
+
+    @Override
+    protected void cleanup(final Context context) throws IOException, InterruptedException
+    {
+        context.write(NullWritable.get(), mFilter);
+        super.cleanup(context);
+    }
+
+    /**
+     * Load the merged filter written by the spam filter pre-pass.
+     *
+     * @param dir output directory of the pre-pass
+     * @param conf job configuration
+     * @return spam filter
+     * @throws IOException if the filter cannot be read
+     */
+    public static KeyBloomFilter loadFilter(final Path dir, final Configuration conf) throws IOException
+    {
+        final KeyBloomFilter filter = new KeyBloomFilter();
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                SequenceFile.Reader.file(new Path(dir, "part-r-00000")))) {
+            if (!reader.next(NullWritable.get(), filter)) {
+                throw new IOException("No spam filter found at " + dir);
+            }
+        }
+        return filter;
+    }
+}
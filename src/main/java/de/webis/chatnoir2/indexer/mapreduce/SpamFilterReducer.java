@@ -0,0 +1,55 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import de.webis.chatnoir2.indexer.util.KeyBloomFilter;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import java.io.IOException;
+
+/**
+ * Reducer which merges the partial spam filters of all mappers into one filter.
+ *
+ * @author Janek Bevendorff
+ */
+public class SpamFilterReducer extends Reducer<NullWritable, KeyBloomFilter, NullWritable, KeyBloomFilter>
+{
+    @Override
+    public void reduce(final NullWritable key, final Iterable<KeyBloomFilter> values, final Context context) throws IOException, InterruptedException
+    {
+        KeyBloomFilter merged = null;
+        for (final KeyBloomFilter value : values) {
+            if (null == merged) {
+                merged = new KeyBloomFilter(value.getNumBits(), value.getNumHashes());
+            }
+            merged.merge(value);
+        }
+        if (null != merged) {
+            context.write(key, merged);
+        }
+    }
+}
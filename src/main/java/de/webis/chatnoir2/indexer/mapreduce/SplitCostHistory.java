@@ -0,0 +1,199 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * History of per-partition processing times, used for weighting input partitions when planning splits.
+ *
+ * Each map task records the number of bytes and the time it took to process its split in a pending file,
+ * which are aggregated into <code>history.tsv</code> once the job has finished. Partitions processed
+ * in the last job replace their previous entries.
+ *
+ * @author Janek Bevendorff
+ */
+public class SplitCostHistory implements WarcMapReduceBase
+{
+    private static final String HISTORY_FILE = "history.tsv";
+    private static final String PENDING_DIR  = "_pending";
+
+    private final HashMap<String, long[]> mStats = new HashMap<>();
+    private double mAvgMillisPerByte = 0.0;
+
+    private SplitCostHistory()
+    {
+    }
+
+    /**
+     * Get the partition name of an input file, which is the name of its MapFile directory.
+     *
+     * @param file input file
+     * @return partition name
+     */
+    public static String partitionName(final Path file)
+    {
+        return null != file.getParent() ? file.getParent().getName() : file.getName();
+    }
+
+    /**
+     * Load the history.
+     *
+     * @param dir history directory
+     * @param conf Hadoop configuration
+     * @return loaded history (empty if there is none yet)
+     * @throws IOException if the history cannot be read
+     */
+    public static SplitCostHistory load(final Path dir, final Configuration conf) throws IOException
+    {
+        final SplitCostHistory history = new SplitCostHistory();
+        final Path file = new Path(dir, HISTORY_FILE);
+        final FileSystem fs = file.getFileSystem(conf);
+        if (fs.exists(file)) {
+            readInto(fs, file, history.mStats);
+        }
+
+        long totalBytes = 0;
+        long totalMillis = 0;
+        for (final long[] stats : history.mStats.values()) {
+            totalBytes += stats[0];
+            totalMillis += stats[1];
+        }
+        history.mAvgMillisPerByte = totalBytes > 0 ? (double) totalMillis / totalBytes : 0.0;
+        return history;
+    }
+
+    /**
+     * Get the relative processing cost per byte of a partition.
+     *
+     * @param partition partition name
+     * @return cost factor relative to the average of all partitions (1.0 if unknown)
+     */
+    public double getCostFactor(final String partition)
+    {
+        final long[] stats = mStats.get(partition);
+        if (null == stats || stats[0] == 0 || mAvgMillisPerByte <= 0.0) {
+            return 1.0;
+        }
+        return Math.max(0.1, Math.min(10.0, (double) stats[1] / stats[0] / mAvgMillisPerByte));
+    }
+
+    public int size()
+    {
+        return mStats.size();
+    }
+
+    /**
+     * Record the processing time of a split.
+     *
+     * @param dir history directory
+     * @param conf Hadoop configuration
+     * @param partition partition name
+     * @param attempt task attempt ID
+     * @param bytes split size in bytes
+     * @param millis processing time in milliseconds
+     * @throws IOException if the record cannot be written
+     */
+    public static void record(final Path dir, final Configuration conf, final String partition,
+                              final String attempt, final long bytes, final long millis) throws IOException
+    {
+        final Path file = new Path(new Path(dir, PENDING_DIR), attempt + ".tsv");
+        try (FSDataOutputStream out = file.getFileSystem(conf).create(file, true)) {
+            out.write(String.format("%s\t%d\t%d\n", partition, bytes, millis).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Aggregate pending records into the history.
+     *
+     * @param dir history directory
+     * @param conf Hadoop configuration
+     * @throws IOException if the history cannot be updated
+     */
+    public static void compact(final Path dir, final Configuration conf) throws IOException
+    {
+        final Path pendingDir = new Path(dir, PENDING_DIR);
+        final FileSystem fs = pendingDir.getFileSystem(conf);
+        final FileStatus[] pendingFiles = fs.globStatus(new Path(pendingDir, "*.tsv"));
+        if (null == pendingFiles || pendingFiles.length == 0) {
+            return;
+        }
+
+        final HashMap<String, long[]> latest = new HashMap<>();
+        for (final FileStatus file : pendingFiles) {
+            readInto(fs, file.getPath(), latest);
+        }
+
+        final TreeMap<String, long[]> merged = new TreeMap<>();
+        final Path historyFile = new Path(dir, HISTORY_FILE);
+        if (fs.exists(historyFile)) {
+            readInto(fs, historyFile, merged);
+        }
+        merged.putAll(latest);
+
+        final Path tmpFile = new Path(dir, HISTORY_FILE + ".tmp");
+        try (FSDataOutputStream out = fs.create(tmpFile, true)) {
+            for (final Map.Entry<String, long[]> e : merged.entrySet()) {
+                out.write(String.format("%s\t%d\t%d\n", e.getKey(), e.getValue()[0], e.getValue()[1])
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        fs.delete(historyFile, false);
+        fs.rename(tmpFile, historyFile);
+        fs.delete(pendingDir, true);
+    }
+
+    /**
+     * Read partition statistics from a file and sum them up per partition.
+     */
+    private static void readInto(final FileSystem fs, final Path file, final Map<String, long[]> stats) throws IOException
+    {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                final String[] parts = line.split("\t");
+                if (parts.length < 3) {
+                    continue;
+                }
+                final long[] s = stats.computeIfAbsent(parts[0], k -> new long[2]);
+                s[0] += Long.parseLong(parts[1]);
+                s[1] += Long.parseLong(parts[2]);
+            }
+        }
+    }
+}
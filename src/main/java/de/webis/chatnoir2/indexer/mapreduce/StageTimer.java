@@ -0,0 +1,127 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Timer for individual processing stages, which records durations as a histogram with
+ * logarithmic (base 4) millisecond buckets in job counters. A disabled timer does nothing.
+ * Stopping a timer which is not running does nothing either, so timers can safely be stopped
+ * again in <code>finally</code> blocks.
+ *
+ * @author Janek Bevendorff
+ */
+public class StageTimer
+{
+    /**
+     * Counter group of stage timing counters.
+     */
+    public static final String COUNTER_GROUP = "Stage timing";
+
+    /**
+     * Exclusive upper bounds of histogram buckets in milliseconds. Durations beyond the
+     * last bound are counted in an additional open-ended bucket.
+     */
+    public static final long[] BUCKET_BOUNDS_MS = {1, 4, 16, 64, 256, 1024, 4096};
+
+    private final Counter[] mBuckets;
+    private final Counter mTotal;
+    private long mStart;
+    private boolean mRunning = false;
+
+    /**
+     * @param context task context
+     * @param stage stage name
+     * @param enabled whether timing is enabled
+     */
+    public StageTimer(final TaskAttemptContext context, final String stage, final boolean enabled)
+    {
+        if (!enabled) {
+            mBuckets = null;
+            mTotal = null;
+            return;
+        }
+
+        mBuckets = new Counter[BUCKET_BOUNDS_MS.length + 1];
+        for (int i = 0; i < mBuckets.length; ++i) {
+            mBuckets[i] = context.getCounter(COUNTER_GROUP, bucketName(stage, i));
+        }
+        mTotal = context.getCounter(COUNTER_GROUP, totalName(stage));
+    }
+
+    /**
+     * Name of a histogram bucket counter.
+     *
+     * @param stage stage name
+     * @param bucket bucket index
+     * @return counter name
+     */
+    public static String bucketName(final String stage, final int bucket)
+    {
+        if (bucket < BUCKET_BOUNDS_MS.length) {
+            return String.format("%s.lt_%05dms", stage, BUCKET_BOUNDS_MS[bucket]);
+        }
+        return String.format("%s.ge_%05dms", stage, BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]);
+    }
+
+    /**
+     * Name of the counter holding the total time of a stage in microseconds.
+     *
+     * @param stage stage name
+     * @return counter name
+     */
+    public static String totalName(final String stage)
+    {
+        return stage + ".total_us";
+    }
+
+    public void start()
+    {
+        if (null != mTotal) {
+            mStart = System.nanoTime();
+            mRunning = true;
+        }
+    }
+
+    public void stop()
+    {
+        if (null == mTotal || !mRunning) {
+            return;
+        }
+        mRunning = false;
+
+        final long nanos = System.nanoTime() - mStart;
+        final long millis = nanos / 1000000L;
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && millis >= BUCKET_BOUNDS_MS[bucket]) {
+            ++bucket;
+        }
+        mBuckets[bucket].increment(1);
+        mTotal.increment(nanos / 1000L);
+    }
+}
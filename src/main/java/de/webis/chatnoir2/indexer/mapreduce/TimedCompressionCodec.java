@@ -0,0 +1,302 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Map output codec which delegates to the codec configured in {@link #CONF_CODEC} and measures the time
+ * spent in its compression and decompression streams (including the transfer of the compressed bytes
+ * from or to the underlying stream).
+ *
+ * Times are added to the {@link WarcMapReduceBase.RecordCounters#SHUFFLE_COMPRESS_MILLIS} and
+ * {@link WarcMapReduceBase.RecordCounters#SHUFFLE_DECOMPRESS_MILLIS} counters once a task has called
+ * {@link #bindCounters(TaskAttemptContext)}. Time measured before that (e.g. while a reduce task is
+ * still fetching map outputs) is added when the counters are bound.
+ *
+ * @author Janek Bevendorff
+ */
+public class TimedCompressionCodec implements CompressionCodec, Configurable
+{
+    /**
+     * Actual map output codec.
+     */
+    public static final String CONF_CODEC = "webis.indexer.shuffle.codec";
+
+    private static final Tally COMPRESS_TALLY = new Tally();
+    private static final Tally DECOMPRESS_TALLY = new Tally();
+
+    /**
+     * Streams publish their time once at least this much has accumulated.
+     */
+    private static final long PUBLISH_NANOS = 1000000L;
+
+    private Configuration mConf;
+    private CompressionCodec mCodec;
+
+    /**
+     * Accumulated codec time of one direction in this JVM.
+     */
+    private static class Tally
+    {
+        private long mNanos = 0;
+        private long mPublishedMillis = 0;
+        private Counter mCounter = null;
+
+        synchronized void add(final long nanos)
+        {
+            mNanos += nanos;
+            if (null == mCounter) {
+                return;
+            }
+            final long millis = mNanos / 1000000L;
+            if (millis > mPublishedMillis) {
+                mCounter.increment(millis - mPublishedMillis);
+                mPublishedMillis = millis;
+            }
+        }
+
+        synchronized void bind(final Counter counter)
+        {
+            mCounter = counter;
+            add(0);
+        }
+    }
+
+    /**
+     * Report codec times of this task to its counters.
+     *
+     * @param context task context
+     */
+    public static void bindCounters(final TaskAttemptContext context)
+    {
+        COMPRESS_TALLY.bind(context.getCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_COMPRESS_MILLIS));
+        DECOMPRESS_TALLY.bind(context.getCounter(WarcMapReduceBase.RecordCounters.SHUFFLE_DECOMPRESS_MILLIS));
+    }
+
+    @Override
+    public void setConf(final Configuration conf)
+    {
+        mConf = conf;
+        final Class<? extends CompressionCodec> codecClass = conf.getClass(CONF_CODEC, null, CompressionCodec.class);
+        if (null == codecClass) {
+            throw new IllegalArgumentException(CONF_CODEC + " is not set");
+        }
+        mCodec = ReflectionUtils.newInstance(codecClass, conf);
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return mConf;
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(final OutputStream out) throws IOException
+    {
+        return new TimedOutputStream(mCodec.createOutputStream(out));
+    }
+
+    @Override
+    public CompressionOutputStream createOutputStream(final OutputStream out, final Compressor compressor) throws IOException
+    {
+        return new TimedOutputStream(mCodec.createOutputStream(out, compressor));
+    }
+
+    @Override
+    public Class<? extends Compressor> getCompressorType()
+    {
+        return mCodec.getCompressorType();
+    }
+
+    @Override
+    public Compressor createCompressor()
+    {
+        return mCodec.createCompressor();
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(final InputStream in) throws IOException
+    {
+        return new TimedInputStream(mCodec.createInputStream(in));
+    }
+
+    @Override
+    public CompressionInputStream createInputStream(final InputStream in, final Decompressor decompressor) throws IOException
+    {
+        return new TimedInputStream(mCodec.createInputStream(in, decompressor));
+    }
+
+    @Override
+    public Class<? extends Decompressor> getDecompressorType()
+    {
+        return mCodec.getDecompressorType();
+    }
+
+    @Override
+    public Decompressor createDecompressor()
+    {
+        return mCodec.createDecompressor();
+    }
+
+    @Override
+    public String getDefaultExtension()
+    {
+        return mCodec.getDefaultExtension();
+    }
+
+    /**
+     * Compression stream which measures the time spent in the wrapped stream.
+     */
+    private static class TimedOutputStream extends CompressionOutputStream
+    {
+        private final CompressionOutputStream mStream;
+        private long mNanos = 0;
+
+        TimedOutputStream(final CompressionOutputStream stream)
+        {
+            super(stream);
+            mStream = stream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            final long start = System.nanoTime();
+            mStream.write(b);
+            addTime(System.nanoTime() - start);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            final long start = System.nanoTime();
+            mStream.write(b, off, len);
+            addTime(System.nanoTime() - start);
+        }
+
+        @Override
+        public void finish() throws IOException
+        {
+            final long start = System.nanoTime();
+            mStream.finish();
+            mNanos += System.nanoTime() - start;
+            COMPRESS_TALLY.add(mNanos);
+            mNanos = 0;
+        }
+
+        @Override
+        public void resetState() throws IOException
+        {
+            mStream.resetState();
+        }
+
+        private void addTime(final long nanos)
+        {
+            mNanos += nanos;
+            if (mNanos >= PUBLISH_NANOS) {
+                COMPRESS_TALLY.add(mNanos);
+                mNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Decompression stream which measures the time spent in the wrapped stream.
+     */
+    private static class TimedInputStream extends CompressionInputStream
+    {
+        private final CompressionInputStream mStream;
+        private long mNanos = 0;
+
+        TimedInputStream(final CompressionInputStream stream) throws IOException
+        {
+            super(stream);
+            mStream = stream;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            final long start = System.nanoTime();
+            final int b = mStream.read();
+            addTime(System.nanoTime() - start);
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException
+        {
+            final long start = System.nanoTime();
+            final int read = mStream.read(b, off, len);
+            addTime(System.nanoTime() - start);
+            return read;
+        }
+
+        @Override
+        public void resetState() throws IOException
+        {
+            mStream.resetState();
+        }
+
+        @Override
+        public long getPos() throws IOException
+        {
+            return mStream.getPos();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            DECOMPRESS_TALLY.add(mNanos);
+            mNanos = 0;
+            super.close();
+        }
+
+        private void addTime(final long nanos)
+        {
+            mNanos += nanos;
+            if (mNanos >= PUBLISH_NANOS) {
+                DECOMPRESS_TALLY.add(mNanos);
+                mNanos = 0;
+            }
+        }
+    }
+}
@@ -26,69 +26,76 @@
 
 package de.webis.chatnoir2.indexer.mapreduce;
 
+import de.webis.chatnoir2.indexer.util.AnchorRecordParser;
+import de.webis.chatnoir2.indexer.util.FieldKeyCache;
 import de.webis.chatnoir2.indexer.util.LangDetector;
+import de.webis.chatnoir2.indexer.util.LanguageFields;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Mapper class for link anchor texts.
  *
+ * The ID scheme of the anchor records can be configured with <code>webis.indexer.anchors.id.scheme</code>
+ * (one of <code>trec_id</code>, <code>warc_record_id</code> or <code>url</code>, default: <code>trec_id</code>).
+ *
  * @author Janek Bevendorff
  */
-public class WarcAnchorMapper extends Mapper<LongWritable, Text, Text, MapWritable> implements WarcMapReduceBase
+public class WarcAnchorMapper extends Mapper<LongWritable, Text, JoinKeyWritable, MapWritable> implements WarcMapReduceBase
 {
     /**
      * Cut anchor texts after MAX_LENGTH characters.
      */
     public static final int MAX_LENGTH = 400;
 
-    protected static Pattern REGEX;
+    protected static final FieldKeyCache ANCHOR_TEXTS_KEYS = new FieldKeyCache(ANCHOR_TEXTS_KEY_PREFIX);
+
+    protected static final LangDetector LANGUAGE_DETECTOR = LangDetector.getInstance();
 
-    protected static LangDetector LANGUAGE_DETECTOR = null;
+    protected AnchorRecordParser mParser;
+    protected JoinKeyFactory mKeyFactory;
+    protected LanguageFields mLanguageFields;
 
     @Override
     protected void setup(final Context context) throws IOException
     {
-        REGEX = Pattern.compile("(clueweb\\d{2}-\\w{2}\\d{4}-\\d{2}-\\d{5})\\s+(.*)");
-
-        if (null == LANGUAGE_DETECTOR) {
-            LANGUAGE_DETECTOR = new LangDetector();
-        }
+        TimedCompressionCodec.bindCounters(context);
+        mParser = new AnchorRecordParser(AnchorRecordParser.IdScheme.fromName(
+                context.getConfiguration().get(CONF_ANCHOR_ID_SCHEME, "trec_id")), MAX_LENGTH);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+        mLanguageFields = new LanguageFields(context.getConfiguration());
     }
 
     @Override
     public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
     {
-        final String strValue = value.toString();
-        final Matcher m = REGEX.matcher(strValue);
-
-        if (m.matches() && null != m.group(1) && null != m.group(2)) {
-            final String recordId = m.group(1);
-            String anchorValue    = m.group(2);
-            if (MAX_LENGTH < anchorValue.length()) {
-                anchorValue = anchorValue.substring(0, MAX_LENGTH);
-            }
-
-            // language detection
-            String lang;
-            lang = LANGUAGE_DETECTOR.detect(anchorValue);
-            if (lang.isEmpty()) {
-                lang = "unknown";
-                LOG.warn("Language detection of anchor text for document " + key + " failed");
-            }
+        if (!mParser.parse(value)) {
+            return;
+        }
 
-            MAPREDUCE_KEY.set(recordId);
+        final byte[] bytes = mParser.getBytes();
+        if (!mKeyFactory.set(MAPREDUCE_KEY, Text.decode(bytes, mParser.getIdStart(), mParser.getIdLength())) ||
+                !mKeyFactory.isSampled(MAPREDUCE_KEY)) {
+            return;
+        }
+        final String anchorValue = Text.decode(bytes, mParser.getTextStart(), mParser.getTextLength());
 
-            OUTPUT_MAP.clear();
-            ANCHOR_TEXTS_VALUE.set(anchorValue);
-            OUTPUT_MAP.put(new Text(ANCHOR_TEXTS_KEY_PREFIX + lang), ANCHOR_TEXTS_VALUE);
-            context.write(MAPREDUCE_KEY, OUTPUT_MAP);
+        // language detection
+        String lang;
+        lang = LANGUAGE_DETECTOR.detect(anchorValue);
+        if (lang.isEmpty()) {
+            lang = "unknown";
+            LOG.warn("Language detection of anchor text for document " + key + " failed");
         }
+
+        OUTPUT_MAP.clear();
+        ANCHOR_TEXTS_VALUE.set(bytes, mParser.getTextStart(), mParser.getTextLength());
+        OUTPUT_MAP.put(ANCHOR_TEXTS_KEYS.get(mLanguageFields.get(lang)), ANCHOR_TEXTS_VALUE);
+        MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_ANCHORS);
+        context.write(MAPREDUCE_KEY, OUTPUT_MAP);
     }
-}
\ No newline at end of file
+}
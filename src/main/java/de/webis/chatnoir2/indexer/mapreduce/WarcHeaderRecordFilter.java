@@ -0,0 +1,320 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Default record filter, which checks the WARC type, payload encoding and HTTP Content-Type
+ * of a record against configurable allow-lists.
+ *
+ * Records are not parsed, instead only the structure of the serialized JSON is tracked on the
+ * raw UTF-8 bytes. Scanning stops as soon as a decision can be made, which is usually the case
+ * before reaching the payload body.
+ *
+ * @author Janek Bevendorff
+ */
+public class WarcHeaderRecordFilter implements WarcRecordFilter, Configurable, WarcMapReduceBase
+{
+    private static final byte[] METADATA_BYTES     = INPUT_METADATA_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAYLOAD_BYTES      = INPUT_PAYLOAD_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADERS_BYTES      = INPUT_PAYLOAD_HEADERS_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENCODING_BYTES     = INPUT_PAYLOAD_ENCODING_KEY.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] WARC_TYPE_BYTES    = "WARC-Type".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CONTENT_TYPE_BYTES = "Content-Type".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PLAIN_BYTES        = "plain".getBytes(StandardCharsets.UTF_8);
+
+    // JSON object contexts
+    private static final int CTX_OTHER    = 0;
+    private static final int CTX_ROOT     = 1;
+    private static final int CTX_METADATA = 2;
+    private static final int CTX_PAYLOAD  = 3;
+    private static final int CTX_HEADERS  = 4;
+
+    private static final int MAX_DEPTH = 32;
+
+    private Configuration mConf;
+    private byte[][] mWarcTypes;
+    private String[] mMimeTypes;
+    private String[] mMimePrefixes;
+
+    private final int[] mContextStack = new int[MAX_DEPTH];
+
+    /**
+     * Get allowed WARC types from the job configuration.
+     *
+     * @param conf job configuration
+     * @return set of allowed WARC types
+     */
+    public static Set<String> getAllowedWarcTypes(final Configuration conf)
+    {
+        final Set<String> types = new HashSet<>();
+        for (final String t : conf.getTrimmedStrings(CONF_FILTER_WARC_TYPES, "response")) {
+            types.add(t);
+        }
+        return types;
+    }
+
+    @Override
+    public void setConf(final Configuration conf)
+    {
+        mConf = conf;
+
+        final Set<String> warcTypes = getAllowedWarcTypes(conf);
+        mWarcTypes = new byte[warcTypes.size()][];
+        int i = 0;
+        for (final String t : warcTypes) {
+            mWarcTypes[i++] = t.getBytes(StandardCharsets.UTF_8);
+        }
+
+        // MIME types may be given as exact types or as prefixes such as "text/*"
+        final Set<String> exact = new HashSet<>();
+        final Set<String> prefixes = new HashSet<>();
+        for (final String m : conf.getTrimmedStrings(CONF_FILTER_MIME_TYPES)) {
+            if (m.endsWith("*")) {
+                prefixes.add(m.substring(0, m.length() - 1).toLowerCase(Locale.ROOT));
+            } else {
+                exact.add(m.toLowerCase(Locale.ROOT));
+            }
+        }
+        mMimeTypes = exact.toArray(new String[0]);
+        mMimePrefixes = prefixes.toArray(new String[0]);
+    }
+
+    @Override
+    public Configuration getConf()
+    {
+        return mConf;
+    }
+
+    @Override
+    public Result filter(final Text key, final Text value)
+    {
+        final byte[] bytes = value.getBytes();
+        final int length = value.getLength();
+
+        int depth = 0;
+        int keyStart = -1;
+        int keyEnd = -1;
+        boolean metadataDone = false;
+        boolean headersDone = false;
+        boolean encodingDone = false;
+
+        int i = 0;
+        while (i < length) {
+            final byte b = bytes[i];
+            if (b == '"') {
+                final int start = i + 1;
+                final int end = skipString(bytes, start, length);
+                i = end + 1;
+
+                // find out whether this was an object key
+                while (i < length && isWhitespace(bytes[i])) {
+                    ++i;
+                }
+                if (i < length && bytes[i] == ':') {
+                    keyStart = start;
+                    keyEnd = end;
+                    ++i;
+                    continue;
+                }
+
+                // string value
+                if (keyStart >= 0 && depth > 0) {
+                    final int ctx = mContextStack[Math.min(depth, MAX_DEPTH) - 1];
+                    if (ctx == CTX_METADATA && equalsIgnoreCase(bytes, keyStart, keyEnd, WARC_TYPE_BYTES)) {
+                        if (!isAllowedWarcType(bytes, start, end)) {
+                            return Result.REJECT_WARC_TYPE;
+                        }
+                    } else if (ctx == CTX_PAYLOAD && equals(bytes, keyStart, keyEnd, ENCODING_BYTES)) {
+                        if (!equals(bytes, start, end, PLAIN_BYTES)) {
+                            return Result.REJECT_BINARY;
+                        }
+                        encodingDone = true;
+                    } else if (ctx == CTX_HEADERS && equalsIgnoreCase(bytes, keyStart, keyEnd, CONTENT_TYPE_BYTES)) {
+                        if (!isAllowedMimeType(bytes, start, end)) {
+                            return Result.REJECT_CONTENT_TYPE;
+                        }
+                    }
+                }
+                keyStart = -1;
+            } else if (b == '{' || b == '[') {
+                int ctx = CTX_OTHER;
+                if (b == '{') {
+                    final int parent = depth > 0 ? mContextStack[Math.min(depth, MAX_DEPTH) - 1] : CTX_OTHER;
+                    if (depth == 0) {
+                        ctx = CTX_ROOT;
+                    } else if (parent == CTX_ROOT && keyStart >= 0 && equals(bytes, keyStart, keyEnd, METADATA_BYTES)) {
+                        ctx = CTX_METADATA;
+                    } else if (parent == CTX_ROOT && keyStart >= 0 && equals(bytes, keyStart, keyEnd, PAYLOAD_BYTES)) {
+                        ctx = CTX_PAYLOAD;
+                    } else if (parent == CTX_PAYLOAD && keyStart >= 0 && equals(bytes, keyStart, keyEnd, HEADERS_BYTES)) {
+                        ctx = CTX_HEADERS;
+                    }
+                }
+                if (depth < MAX_DEPTH) {
+                    mContextStack[depth] = ctx;
+                }
+                ++depth;
+                keyStart = -1;
+                ++i;
+            } else if (b == '}' || b == ']') {
+                if (depth > 0 && depth <= MAX_DEPTH) {
+                    final int ctx = mContextStack[depth - 1];
+                    metadataDone |= ctx == CTX_METADATA;
+                    headersDone  |= ctx == CTX_HEADERS;
+                    if (ctx == CTX_PAYLOAD) {
+                        // payload without encoding field will be rejected by the mapper
+                        encodingDone = true;
+                        headersDone = true;
+                    }
+                }
+                --depth;
+                keyStart = -1;
+                ++i;
+            } else {
+                // numbers, literals, commas, whitespace
+                if (b == ',') {
+                    keyStart = -1;
+                }
+                ++i;
+            }
+
+            if (metadataDone && headersDone && encodingDone) {
+                break;
+            }
+        }
+
+        return Result.ACCEPT;
+    }
+
+    /**
+     * Skip to the closing quote of a JSON string.
+     *
+     * @return index of the closing quote (or length if unterminated)
+     */
+    private static int skipString(final byte[] bytes, int i, final int length)
+    {
+        while (i < length) {
+            final byte b = bytes[i];
+            if (b == '"') {
+                return i;
+            }
+            i += b == '\\' ? 2 : 1;
+        }
+        return length;
+    }
+
+    private static boolean isWhitespace(final byte b)
+    {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean equals(final byte[] bytes, final int start, final int end, final byte[] other)
+    {
+        if (end - start != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; ++i) {
+            if (bytes[start + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(final byte[] bytes, final int start, final int end, final byte[] other)
+    {
+        if (end - start != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; ++i) {
+            if (toLower(bytes[start + i]) != toLower(other[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte toLower(final byte b)
+    {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private boolean isAllowedWarcType(final byte[] bytes, final int start, final int end)
+    {
+        for (final byte[] t : mWarcTypes) {
+            if (equals(bytes, start, end, t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAllowedMimeType(final byte[] bytes, final int start, int end)
+    {
+        if (mMimeTypes.length == 0 && mMimePrefixes.length == 0) {
+            return true;
+        }
+
+        // strip parameters and surrounding whitespace
+        for (int i = start; i < end; ++i) {
+            if (bytes[i] == ';') {
+                end = i;
+                break;
+            }
+        }
+        int s = start;
+        while (s < end && isWhitespace(bytes[s])) {
+            ++s;
+        }
+        while (end > s && isWhitespace(bytes[end - 1])) {
+            --end;
+        }
+
+        // org.json escapes slashes following '<' only, but be safe
+        final String mimeType = new String(bytes, s, end - s, StandardCharsets.UTF_8)
+                .replace("\\/", "/").toLowerCase(Locale.ROOT);
+        for (final String m : mMimeTypes) {
+            if (m.equals(mimeType)) {
+                return true;
+            }
+        }
+        for (final String p : mMimePrefixes) {
+            if (mimeType.startsWith(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Input format for WARC JSON MapFiles, which drops records rejected by the configured
+ * {@link WarcRecordFilter} before they reach the mapper.
+ *
+ * If a target number of splits is configured, splits are planned across all input partitions so that
+ * each split has about the same estimated processing cost instead of one split per block. The cost of a
+ * byte range is derived from its size and its number of records (both weighted equally), which are
+ * taken from the MapFile index, and is scaled by the relative processing time per byte of its partition
+ * in previous jobs if a {@link SplitCostHistory} is configured. Split boundaries are placed at indexed
+ * record positions, the reader synchronizes to the next sync marker as usual.
+ *
+ * @author Janek Bevendorff
+ */
+public class WarcInputFormat extends SequenceFileInputFormat<Text, Text> implements WarcMapReduceBase
+{
+    /**
+     * Checkpoint distance for files without index.
+     */
+    private static final long UNINDEXED_SEGMENT_BYTES = 1024L * 1024L;
+
+    /**
+     * Byte offsets and record counts of the segments of one input file.
+     */
+    private static class FileSegments
+    {
+        final FileStatus file;
+        final double costFactor;
+        final List<Long> offsets = new ArrayList<>();
+        long numRecords = -1;
+
+        FileSegments(final FileStatus file, final double costFactor)
+        {
+            this.file = file;
+            this.costFactor = costFactor;
+        }
+    }
+
+    @Override
+    public RecordReader<Text, Text> createRecordReader(final InputSplit split, final TaskAttemptContext context)
+    {
+        return new WarcRecordReader();
+    }
+
+    @Override
+    public List<InputSplit> getSplits(final JobContext job) throws IOException
+    {
+        final Configuration conf = job.getConfiguration();
+        final int numSplits = conf.getInt(CONF_SPLIT_TARGET, 0);
+        if (numSplits <= 0) {
+            return super.getSplits(job);
+        }
+
+        SplitCostHistory history = null;
+        if (null != conf.get(CONF_SPLIT_HISTORY)) {
+            history = SplitCostHistory.load(new Path(conf.get(CONF_SPLIT_HISTORY)), conf);
+        }
+
+        // collect segments and totals
+        final int indexInterval = conf.getInt("io.map.index.interval", 128);
+        final List<FileSegments> segments = new ArrayList<>();
+        long totalBytes = 0;
+        long totalRecords = 0;
+        long indexedBytes = 0;
+        for (final FileStatus file : listStatus(job)) {
+            if (file.getLen() == 0) {
+                continue;
+            }
+            final FileSegments fileSegments = new FileSegments(file, null != history ?
+                    history.getCostFactor(SplitCostHistory.partitionName(file.getPath())) : 1.0);
+            readIndex(fileSegments, indexInterval, conf);
+            if (fileSegments.numRecords >= 0) {
+                totalRecords += fileSegments.numRecords;
+                indexedBytes += file.getLen();
+            } else {
+                for (long offset = 0; offset < file.getLen(); offset += UNINDEXED_SEGMENT_BYTES) {
+                    fileSegments.offsets.add(offset);
+                }
+            }
+            totalBytes += file.getLen();
+            segments.add(fileSegments);
+        }
+
+        // estimate record counts of files without index from the average record size
+        final double recordsPerByte = indexedBytes > 0 ? (double) totalRecords / indexedBytes : 0.0;
+        for (final FileSegments fileSegments : segments) {
+            if (fileSegments.numRecords < 0) {
+                fileSegments.numRecords = Math.round(fileSegments.file.getLen() * recordsPerByte);
+                totalRecords += fileSegments.numRecords;
+            }
+        }
+
+        final double byteWeight = totalRecords > 0 ? 0.5 / totalBytes : 1.0 / totalBytes;
+        final double recordWeight = totalRecords > 0 ? 0.5 / totalRecords : 0.0;
+        double totalCost = 0.0;
+        for (final FileSegments fileSegments : segments) {
+            totalCost += fileSegments.costFactor * (fileSegments.file.getLen() * byteWeight +
+                    fileSegments.numRecords * recordWeight);
+        }
+        final double targetCost = totalCost / numSplits;
+
+        final List<InputSplit> splits = new ArrayList<>();
+        for (final FileSegments fileSegments : segments) {
+            addSplits(fileSegments, byteWeight, recordWeight, targetCost, splits, conf);
+        }
+        LOG.info(String.format("Planned %d splits for %d files (target: %d, partitions with history: %d)",
+                splits.size(), segments.size(), numSplits, null != history ? history.size() : 0));
+        return splits;
+    }
+
+    /**
+     * Cut a file into splits of about the target cost at segment boundaries.
+     */
+    private void addSplits(final FileSegments fileSegments, final double byteWeight, final double recordWeight,
+                           final double targetCost, final List<InputSplit> splits, final Configuration conf) throws IOException
+    {
+        final Path path = fileSegments.file.getPath();
+        final long length = fileSegments.file.getLen();
+        final FileSystem fs = path.getFileSystem(conf);
+        final BlockLocation[] blocks = fs.getFileBlockLocations(fileSegments.file, 0, length);
+        final int numSegments = fileSegments.offsets.size();
+        final double recordsPerSegment = numSegments > 0 ? (double) fileSegments.numRecords / numSegments : 0.0;
+
+        final List<long[]> ranges = new ArrayList<>();
+        long splitStart = 0;
+        double cost = 0.0;
+        for (int i = 0; i < numSegments; ++i) {
+            final long segmentEnd = i + 1 < numSegments ? fileSegments.offsets.get(i + 1) : length;
+            cost += fileSegments.costFactor * ((segmentEnd - fileSegments.offsets.get(i)) * byteWeight +
+                    recordsPerSegment * recordWeight);
+            if (cost >= targetCost && segmentEnd < length) {
+                ranges.add(new long[] {splitStart, segmentEnd});
+                splitStart = segmentEnd;
+                cost = 0.0;
+            }
+        }
+
+        // append a small remainder to the previous split
+        if (!ranges.isEmpty() && cost < 0.25 * targetCost) {
+            ranges.get(ranges.size() - 1)[1] = length;
+        } else {
+            ranges.add(new long[] {splitStart, length});
+        }
+
+        for (final long[] range : ranges) {
+            final int blockIndex = getBlockIndex(blocks, range[0]);
+            splits.add(makeSplit(path, range[0], range[1] - range[0], blocks[blockIndex].getHosts()));
+        }
+    }
+
+    /**
+     * Read record offsets from the MapFile index next to a data file.
+     * Leaves the number of records at -1 if there is no index.
+     *
+     * The number of records is estimated from the number of index entries. Since the index doesn't store the
+     * interval it was written with, <code>io.map.index.interval</code> of the current job has to match the
+     * interval used when writing the MapFiles. Entries with the same offset (records sharing a compressed
+     * block) are counted, but only distinct offsets are used as segment boundaries.
+     */
+    private void readIndex(final FileSegments fileSegments, final int indexInterval, final Configuration conf)
+    {
+        final Path indexPath = new Path(fileSegments.file.getPath().getParent(), "index");
+        try {
+            final FileSystem fs = indexPath.getFileSystem(conf);
+            if (!fs.exists(indexPath)) {
+                return;
+            }
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(indexPath))) {
+                final Writable key = (Writable) ReflectionUtils.newInstance(reader.getKeyClass(), conf);
+                final LongWritable position = new LongWritable();
+                fileSegments.offsets.add(0L);
+                long entries = 0;
+                while (reader.next(key, position)) {
+                    ++entries;
+                    if (position.get() > fileSegments.offsets.get(fileSegments.offsets.size() - 1)) {
+                        fileSegments.offsets.add(position.get());
+                    }
+                }
+                fileSegments.numRecords = entries * indexInterval;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read MapFile index " + indexPath + ": " + e.getMessage());
+            fileSegments.offsets.clear();
+            fileSegments.numRecords = -1;
+        }
+    }
+}
@@ -37,13 +37,51 @@ public interface WarcMapReduceBase
 {
     Logger LOG = Logger.getLogger(WarcMapper.class);
 
+    String CONF_UUID_PREFIX         = "webis.mapfile.uuid.prefix";
+    String CONF_ES_SHARDS           = "webis.indexer.es.shards";
+    String CONF_ES_ROUTING_SHARDS   = "webis.indexer.es.routing.shards";
+    String CONF_ES_SHARD_ROUTING    = "webis.indexer.es.shard.routing";
+    String CONF_ANCHOR_ID_SCHEME    = "webis.indexer.anchors.id.scheme";
+    String CONF_MAX_ANCHORS         = "webis.indexer.anchors.max";
+    String CONF_JOIN_MODE           = "webis.indexer.join.mode";
+    String CONF_HOST_STATS          = "webis.indexer.host.stats";
+    String CONF_HOST_MAX_DOCS       = "webis.indexer.host.max.docs";
+    String CONF_DOC_VERSION         = "webis.indexer.doc.version";
+    String CONF_FILTER_CLASS        = "webis.indexer.filter.class";
+    String CONF_FILTER_WARC_TYPES   = "webis.indexer.filter.warc.types";
+    String CONF_FILTER_MIME_TYPES   = "webis.indexer.filter.mime.types";
+    String CONF_METRICS_INTERVAL    = "webis.indexer.metrics.interval";
+    String CONF_SAMPLE_FRACTION     = "webis.indexer.sample.fraction";
+    String CONF_DRY_RUN             = "webis.indexer.dry.run";
+    String CONF_ESTIMATE_MAPPERS    = "webis.indexer.estimate.mappers";
+    String CONF_PRIORITY            = "webis.indexer.priority";
+    String CONF_PRIORITY_MIN        = "webis.indexer.priority.min";
+    String CONF_PRIORITY_MAX        = "webis.indexer.priority.max";
+    String CONF_PRIORITY_DEADLINE   = "webis.indexer.priority.deadline";
+    String CONF_SPAM_THRESHOLD      = "webis.indexer.spam.threshold";
+    String CONF_SPAM_FILTER         = "webis.indexer.spam.filter";
+    String CONF_SPAM_FILTER_BITS    = "webis.indexer.spam.filter.bits";
+    String CONF_SPAM_FILTER_HASHES  = "webis.indexer.spam.filter.hashes";
+    String CONF_SPAM_FILTER_FPP     = "webis.indexer.spam.filter.fpp";
+    String CONF_DEAD_LETTER         = "webis.indexer.dead.letter";
+    String CONF_DEAD_LETTER_PAYLOAD = "webis.indexer.dead.letter.payload";
+    String CONF_REPLAY              = "webis.indexer.replay";
+    String CONF_SPLIT_TARGET        = "webis.indexer.split.target";
+    String CONF_SPLIT_HISTORY       = "webis.indexer.split.history";
+    String CONF_OUTLINKS            = "webis.indexer.outlinks";
+    String CONF_OUTLINKS_MAX        = "webis.indexer.outlinks.max";
+    String CONF_OUTLINKS_SAME_HOST  = "webis.indexer.outlinks.same.host";
+    String CONF_BULK_CONCURRENCY    = "webis.indexer.bulk.concurrency";
+    String CONF_QUARANTINE          = "webis.indexer.quarantine";
+    String CONF_QUARANTINE_TIMEOUT  = "webis.indexer.quarantine.timeout";
+
     String INPUT_METADATA_KEY         = "metadata";
     String INPUT_PAYLOAD_KEY          = "payload";
     String INPUT_PAYLOAD_BODY_KEY     = "body";
     String INPUT_PAYLOAD_HEADERS_KEY  = "headers";
     String INPUT_PAYLOAD_ENCODING_KEY = "encoding";
 
-    Text MAPREDUCE_KEY = new Text();
+    JoinKeyWritable MAPREDUCE_KEY = new JoinKeyWritable();
 
     Text DOCUMENT_UUID_KEY   = new Text("uuid");
     Text DOCUMENT_UUID_VALUE = new Text();
@@ -62,6 +100,11 @@ public interface WarcMapReduceBase
     Text SPAM_RANK_KEY     = new Text("spam_rank");
     Text PAGE_RANK_KEY     = new Text("page_rank");
     Text BODY_LENGTH_KEY   = new Text("body_length");
+    Text QUALITY_SCORE_KEY = new Text("quality_score");
+
+    Text HOST_PAGE_COUNT_KEY    = new Text("host_page_count");
+    Text HOST_INLINK_COUNT_KEY  = new Text("host_inlink_count");
+    Text HOST_AVG_SPAM_RANK_KEY = new Text("host_avg_spam_rank");
 
     String TITLE_KEY_PREFIX        = "title_lang.";
     String META_DESC_KEY_PREFIX    = "meta_desc_lang.";
@@ -69,6 +112,12 @@ public interface WarcMapReduceBase
     String FULL_BODY_KEY_PREFIX    = "full_body_lang.";
     String HEADINGS_KEY_PREFIX     = "headings_lang.";
     String ANCHOR_TEXTS_KEY_PREFIX = "anchor_texts_lang.";
+    String SNIPPETS_KEY_PREFIX     = "snippets_lang.";
+
+    /**
+     * Counter group for the number of documents per field language.
+     */
+    String LANGUAGE_COUNTER_GROUP = "Languages";
 
     Text WARC_TREC_ID_VALUE             = new Text();
     Text WARC_RECORD_ID_VALUE           = new Text();
@@ -84,6 +133,11 @@ public interface WarcMapReduceBase
     LongWritable SPAM_RANK_VALUE     = new LongWritable();
     FloatWritable PAGE_RANK_VALUE    = new FloatWritable();
     LongWritable BODY_LENGTH_VALUE   = new LongWritable();
+    FloatWritable QUALITY_SCORE_VALUE = new FloatWritable();
+
+    IntWritable HOST_PAGE_COUNT_VALUE      = new IntWritable();
+    IntWritable HOST_INLINK_COUNT_VALUE    = new IntWritable();
+    FloatWritable HOST_AVG_SPAM_RANK_VALUE = new FloatWritable();
   
     Text TITLE_VALUE        = new Text();
     Text META_DESC_VALUE    = new Text();
@@ -91,6 +145,7 @@ public interface WarcMapReduceBase
     Text FULL_BODY_VALUE    = new Text();
     Text HEADINGS_VALUE     = new Text();
     Text ANCHOR_TEXTS_VALUE = new Text();
+    Text SNIPPETS_VALUE     = new Text();
 
     MapWritable OUTPUT_MAP = new MapWritable();
 
@@ -138,16 +193,97 @@ public interface WarcMapReduceBase
          */
         SKIPPED_RECORDS_BINARY,
 
+        /**
+         * Number of skipped records with a content type that is not allowed.
+         */
+        SKIPPED_RECORDS_CONTENT_TYPE,
+
         /**
          * Record skipped because it has no valid ID.
          */
         SKIPPED_RECORDS_NO_ID,
 
+        /**
+         * Number of skipped records due to unexpected errors during content extraction.
+         */
+        SKIPPED_RECORDS_EXTRACTION_ERROR,
+
+        /**
+         * Number of skipped records of hosts that exceed the per-host document limit.
+         */
+        SKIPPED_RECORDS_HOST_LIMIT,
+
+        /**
+         * Number of skipped records with a spam rank below the configured threshold or without spam rank.
+         */
+        SKIPPED_RECORDS_SPAM,
+
+        /**
+         * Number of anchor texts dropped, because a document already had the maximum number of anchors.
+         */
+        ANCHOR_TEXTS_DROPPED,
+
+        /**
+         * Number of documents skipped, because their priority is outside the configured range.
+         */
+        SKIPPED_RECORDS_PRIORITY,
+
+        /**
+         * Number of documents not indexed, because the time budget was exhausted.
+         */
+        SKIPPED_RECORDS_DEADLINE,
+
         /**
          * Number documents for which language detection failed.
          */
         LANGDETECT_FAILED,
 
+        /**
+         * Number of records with an unparseable HTTP Date header.
+         */
+        DATE_PARSE_ERROR,
+
+        /**
+         * Number of records whose body was re-decoded with its declared charset.
+         */
+        CHARSET_REDECODED,
+
+        /**
+         * Number of records not processed, because they are not part of the configured sample
+         * (or not part of the replayed dead letters).
+         */
+        NOT_SAMPLED,
+
+        /**
+         * Spam rank lines which could not be parsed in the spam filter pre-pass.
+         */
+        SKIPPED_SPAM_RANKS_MALFORMED,
+
+        /**
+         * Records skipped because they crashed or hung a previous task attempt.
+         */
+        SKIPPED_RECORDS_QUARANTINED,
+
+        /**
+         * Number of anchor texts extracted from outlinks of mapped documents.
+         */
+        OUTLINK_ANCHORS,
+
+        /**
+         * Number of indexed documents whose outlinks could not be extracted.
+         */
+        OUTLINK_ERRORS,
+
+        /**
+         * Number of dead letters written in the map stage.
+         */
+        DEAD_LETTERS,
+
+        /**
+         * Number of bytes of serialized output documents (dry runs only).
+         */
+        DRY_RUN_OUTPUT_BYTES,
+
         /**
          * Number of actual JSON docs generated.
          */
@@ -156,6 +292,41 @@ public interface WarcMapReduceBase
         /**
          * Number of documents with no plain-text content after reduce stage.
          */
-        NO_CONTENT
+        NO_CONTENT,
+
+        /**
+         * Number of reduce keys with ranks or anchors, but without a document.
+         */
+        NO_DOCUMENT,
+
+        /**
+         * Time spent compressing map output in milliseconds (only with shuffle compression).
+         */
+        SHUFFLE_COMPRESS_MILLIS,
+
+        /**
+         * Time spent decompressing map output in milliseconds (only with shuffle compression).
+         */
+        SHUFFLE_DECOMPRESS_MILLIS,
+
+        /**
+         * Number of documents indexed by the concurrent bulk writer.
+         */
+        BULK_DOCUMENTS_WRITTEN,
+
+        /**
+         * Number of bytes of bulk requests sent by the concurrent bulk writer (including retries).
+         */
+        BULK_BYTES_SENT,
+
+        /**
+         * Number of document submissions retried by the concurrent bulk writer.
+         */
+        BULK_DOCUMENTS_RETRIED,
+
+        /**
+         * Number of documents rejected in the concurrent bulk writer.
+         */
+        BULK_DOCUMENTS_FAILED
     }
 }
@@ -26,10 +26,19 @@
 package de.webis.chatnoir2.indexer.mapreduce;
 
 import de.webis.WebisUUID;
+import de.webis.chatnoir2.indexer.util.BodyDecoder;
 import de.webis.chatnoir2.indexer.util.ContentExtractor;
+import de.webis.chatnoir2.indexer.util.FieldKeyCache;
+import de.webis.chatnoir2.indexer.util.HttpDateParser;
+import de.webis.chatnoir2.indexer.util.KeyBloomFilter;
 import de.webis.chatnoir2.indexer.util.LangDetector;
+import de.webis.chatnoir2.indexer.util.LanguageFields;
+import de.webis.chatnoir2.indexer.util.SnippetSelector;
+import de.webis.chatnoir2.indexer.util.UrlCanonicalizer;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.json.JSONException;
@@ -43,8 +52,6 @@ import org.jsoup.select.Elements;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
@@ -52,7 +59,7 @@ import java.util.*;
  *
  * @author Janek Bevendorff
  */
-public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements WarcMapReduceBase
+public class WarcMapper extends Mapper<Text, Text, JoinKeyWritable, MapWritable> implements WarcMapReduceBase
 {
     protected static Counter TOTAL_RECORDS_COUNTER;
     protected static Counter RECORDS_COUNTER;
@@ -64,13 +71,55 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
     protected static Counter BINARY_COUNTER;
     protected static Counter LANGDETECT_FAILED_COUNTER;
     protected static Counter SKIPPED_NO_ID_COUNTER;
-
-    protected static LangDetector LANGUAGE_DETECTOR = null;
+    protected static Counter DATE_PARSE_ERROR_COUNTER;
+    protected static Counter HOST_LIMIT_COUNTER;
+    protected static Counter CHARSET_REDECODED_COUNTER;
+    protected static Counter NOT_SAMPLED_COUNTER;
+    protected static Counter SPAM_COUNTER;
+    protected static Counter EXTRACTION_ERROR_COUNTER;
+    protected static Counter DEAD_LETTERS_COUNTER;
+    protected static Counter OUTLINK_ANCHORS_COUNTER;
+    protected static Counter OUTLINK_ERROR_COUNTER;
+    protected static Counter QUARANTINED_COUNTER;
+
+    protected static final LangDetector LANGUAGE_DETECTOR = LangDetector.getInstance();
+
+    protected static HostStatsStore HOST_STATS = null;
+    protected static KeyBloomFilter SPAM_FILTER = null;
+
+    protected static final FieldKeyCache BODY_KEYS      = new FieldKeyCache(BODY_KEY_PREFIX);
+    protected static final FieldKeyCache FULL_BODY_KEYS = new FieldKeyCache(FULL_BODY_KEY_PREFIX);
+    protected static final FieldKeyCache HEADINGS_KEYS  = new FieldKeyCache(HEADINGS_KEY_PREFIX);
+    protected static final FieldKeyCache TITLE_KEYS     = new FieldKeyCache(TITLE_KEY_PREFIX);
+    protected static final FieldKeyCache META_DESC_KEYS = new FieldKeyCache(META_DESC_KEY_PREFIX);
+    protected static final FieldKeyCache ANCHOR_TEXTS_KEYS = new FieldKeyCache(ANCHOR_TEXTS_KEY_PREFIX);
+    protected static final FieldKeyCache SNIPPETS_KEYS  = new FieldKeyCache(SNIPPETS_KEY_PREFIX);
+
+    protected JoinKeyFactory mKeyFactory;
+    protected LanguageFields mLanguageFields;
+    protected DeadLetterWriter mDeadLetters = null;
+    protected RecordQuarantine mQuarantine = null;
+    protected SnippetSelector mSnippetSelector;
+    protected HttpDateParser mDateParser;
+    protected BodyDecoder mBodyDecoder;
+    protected boolean mOutlinks;
+    protected int mMaxOutlinks;
+    protected boolean mOutlinksSameHost;
+    protected final HashSet<String> mOutlinkTargets = new HashSet<>();
+    protected int mMaxDocsPerHost;
+    protected Set<String> mWarcTypes;
+
+    protected StageTimer mParseTimer;
+    protected StageTimer mHtmlTimer;
+    protected StageTimer mLangDetectTimer;
+    protected StageTimer mMainContentTimer;
+    protected StageTimer mMapTotalTimer;
 
     @Override
     protected void setup(final Context context) throws IOException, InterruptedException
     {
         super.setup(context);
+        TimedCompressionCodec.bindCounters(context);
 
         TOTAL_RECORDS_COUNTER       = context.getCounter(RecordCounters.TOTAL_RECORDS);
         RECORDS_COUNTER             = context.getCounter(RecordCounters.RECORDS);
@@ -82,33 +131,118 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
         BINARY_COUNTER              = context.getCounter(RecordCounters.SKIPPED_RECORDS_BINARY);
         LANGDETECT_FAILED_COUNTER   = context.getCounter(RecordCounters.LANGDETECT_FAILED);
         SKIPPED_NO_ID_COUNTER       = context.getCounter(RecordCounters.SKIPPED_RECORDS_NO_ID);
+        DATE_PARSE_ERROR_COUNTER    = context.getCounter(RecordCounters.DATE_PARSE_ERROR);
+        HOST_LIMIT_COUNTER          = context.getCounter(RecordCounters.SKIPPED_RECORDS_HOST_LIMIT);
+        CHARSET_REDECODED_COUNTER   = context.getCounter(RecordCounters.CHARSET_REDECODED);
+        NOT_SAMPLED_COUNTER         = context.getCounter(RecordCounters.NOT_SAMPLED);
+        SPAM_COUNTER                = context.getCounter(RecordCounters.SKIPPED_RECORDS_SPAM);
+        EXTRACTION_ERROR_COUNTER    = context.getCounter(RecordCounters.SKIPPED_RECORDS_EXTRACTION_ERROR);
+        DEAD_LETTERS_COUNTER        = context.getCounter(RecordCounters.DEAD_LETTERS);
+        OUTLINK_ANCHORS_COUNTER     = context.getCounter(RecordCounters.OUTLINK_ANCHORS);
+        OUTLINK_ERROR_COUNTER       = context.getCounter(RecordCounters.OUTLINK_ERRORS);
+        QUARANTINED_COUNTER         = context.getCounter(RecordCounters.SKIPPED_RECORDS_QUARANTINED);
+
+        final boolean profile = context.getConfiguration().getBoolean(CONF_DRY_RUN, false);
+        mParseTimer       = new StageTimer(context, "map_parse_json", profile);
+        mHtmlTimer        = new StageTimer(context, "map_parse_html", profile);
+        mLangDetectTimer  = new StageTimer(context, "map_lang_detect", profile);
+        mMainContentTimer = new StageTimer(context, "map_main_content", profile);
+        mMapTotalTimer    = new StageTimer(context, "map_total", profile);
+
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+        mLanguageFields = new LanguageFields(context.getConfiguration());
+        mSnippetSelector = new SnippetSelector(context.getConfiguration());
+        mDateParser = new HttpDateParser();
+        mBodyDecoder = new BodyDecoder();
+        mOutlinks = context.getConfiguration().getBoolean(CONF_OUTLINKS, false) &&
+                mKeyFactory.getMode() == JoinKeyFactory.JoinMode.URL;
+        mMaxOutlinks = context.getConfiguration().getInt(CONF_OUTLINKS_MAX, 100);
+        mOutlinksSameHost = context.getConfiguration().getBoolean(CONF_OUTLINKS_SAME_HOST, false);
+        mWarcTypes = WarcHeaderRecordFilter.getAllowedWarcTypes(context.getConfiguration());
+
+        final String hostStatsPath = context.getConfiguration().get(CONF_HOST_STATS);
+        if (null == HOST_STATS && null != hostStatsPath) {
+            HOST_STATS = HostStatsStore.load(new Path(hostStatsPath), context.getConfiguration());
+            LOG.info("Loaded statistics for " + HOST_STATS.size() + " hosts");
+        }
+        mMaxDocsPerHost = context.getConfiguration().getInt(CONF_HOST_MAX_DOCS, 0);
+
+        final String deadLetterPath = context.getConfiguration().get(CONF_DEAD_LETTER);
+        if (null != deadLetterPath) {
+            mDeadLetters = new DeadLetterWriter(new Path(deadLetterPath), "map-" + context.getTaskAttemptID(),
+                    context.getConfiguration(), context.getConfiguration().getBoolean(CONF_DEAD_LETTER_PAYLOAD, false));
+        }
+
+        final String quarantinePath = context.getConfiguration().get(CONF_QUARANTINE);
+        if (null != quarantinePath) {
+            mQuarantine = new RecordQuarantine(new Path(quarantinePath), context,
+                    context.getConfiguration().getLong(CONF_QUARANTINE_TIMEOUT, 120) * 1000L);
+        }
 
-        if (null == LANGUAGE_DETECTOR) {
-            LANGUAGE_DETECTOR = new LangDetector();
+        final String spamFilterPath = context.getConfiguration().get(CONF_SPAM_FILTER);
+        if (null == SPAM_FILTER && null != spamFilterPath) {
+            SPAM_FILTER = SpamFilterMapper.loadFilter(new Path(spamFilterPath), context.getConfiguration());
+            LOG.info("Loaded spam filter with " + SPAM_FILTER.getNumBits() + " bits");
         }
     }
 
     @Override
     public void map(final Text key, final Text value, final Context context) throws IOException, InterruptedException
+    {
+        if (null == mQuarantine) {
+            mapRecord(key, value, context);
+            return;
+        }
+
+        final String recordKey = key.toString();
+        final String quarantineReason = mQuarantine.getQuarantineReason(recordKey);
+        if (null != quarantineReason) {
+            LOG.warn("Document " + key + " skipped, quarantined by previous attempt: " + quarantineReason);
+            QUARANTINED_COUNTER.increment(1);
+            OUTPUT_MAP.clear();
+            writeDeadLetter(key, value, "quarantined: " + quarantineReason);
+            return;
+        }
+
+        mQuarantine.begin(recordKey);
+        try {
+            mapRecord(key, value, context);
+        } catch (Error e) {
+            mQuarantine.fail(e);
+            throw e;
+        } catch (IOException | InterruptedException e) {
+            mQuarantine.end();
+            throw e;
+        }
+        mQuarantine.end();
+    }
+
+    /**
+     * Map a single input record.
+     *
+     * @param key input key
+     * @param value input record
+     * @param context mapper context
+     */
+    private void mapRecord(final Text key, final Text value, final Context context) throws IOException, InterruptedException
     {
         OUTPUT_MAP.clear();
-        MAPREDUCE_KEY.clear();
 
         TOTAL_RECORDS_COUNTER.increment(1);
 
-        final String valueStr = value.toString();
-
         LOG.debug("Mapping document " + key);
 
         // ignore large files
-        if (valueStr.getBytes().length > 1024 * 1024) {
-            LOG.warn("Skipped document " + key + " with size " + valueStr.getBytes().length + "bytes (too large)");
+        if (value.getLength() > 1024 * 1024) {
+            LOG.warn("Skipped document " + key + " with size " + value.getLength() + "bytes (too large)");
             TOO_LARGE_COUNTER.increment(1);
             return;
         }
 
         try {
-            final JSONObject inputJson  = new JSONObject(valueStr);
+            mMapTotalTimer.start();
+            mParseTimer.start();
+            final JSONObject inputJson  = new JSONObject(value.toString());
 
             // parse input JSON
             final JSONObject metadata = inputJson.getJSONObject(INPUT_METADATA_KEY);
@@ -123,8 +257,8 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
 
             final JSONObject contentHeaders = payload.getJSONObject(INPUT_PAYLOAD_HEADERS_KEY);
             final String contentEncoding    = payload.getString(INPUT_PAYLOAD_ENCODING_KEY);
-            final String contentBody        = payload.getString(INPUT_PAYLOAD_BODY_KEY);
-            if (null == contentHeaders || null == contentEncoding || null == contentBody) {
+            final String rawContentBody     = payload.getString(INPUT_PAYLOAD_BODY_KEY);
+            if (null == contentHeaders || null == contentEncoding || null == rawContentBody) {
                 throw new JSONException("Missing one of 'payload/[headers|encoding|body]'");
             }
 
@@ -138,10 +272,12 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
             Iterator it = metadata.keys();
             String recordId = null;
             String trecId = null;
+            String targetUri = null;
+            String hostname = null;
             while (it.hasNext()) {
                 final String k = (String) it.next();
 
-                if (k.equalsIgnoreCase("WARC-Type") && !metadata.getString(k).equals("response")) {
+                if (k.equalsIgnoreCase("WARC-Type") && !mWarcTypes.contains(metadata.getString(k))) {
                     NO_REPONSE_RECORD_COUNTER.increment(1);
                     return;
                 }
@@ -158,7 +294,8 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
                     try {
                         final URI targetURI = new URI(metadata.getString(k));
 
-                        WARC_TARGET_HOSTNAME_VALUE.set(null != targetURI.getHost() ? targetURI.getHost() : "");
+                        hostname = targetURI.getHost();
+                        WARC_TARGET_HOSTNAME_VALUE.set(null != hostname ? hostname : "");
                         OUTPUT_MAP.put(WARC_TARGET_HOSTNAME_KEY, WARC_TARGET_HOSTNAME_VALUE);
 
                         WARC_TARGET_PATH_VALUE.set(null != targetURI.getPath() ? targetURI.getPath() : "");
@@ -170,7 +307,8 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
                         LOG.error("URL Exception for url '" + metadata.getString(k) + "': " + e.getMessage());
                     }
 
-                    WARC_TARGET_URI_VALUE.set(metadata.getString(k));
+                    targetUri = metadata.getString(k);
+                    WARC_TARGET_URI_VALUE.set(targetUri);
                     OUTPUT_MAP.put(WARC_TARGET_URI_KEY, WARC_TARGET_URI_VALUE);
                 }
             }
@@ -183,42 +321,110 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
                 return;
             }
 
-            if (null != trecId) {
-                MAPREDUCE_KEY.set(trecId);
+            final UUID documentUUID = WebisUUID.generateUUID(
+                    context.getConfiguration().get(CONF_UUID_PREFIX), null != trecId ? trecId : recordId);
+            DOCUMENT_UUID_VALUE.set(documentUUID.toString());
+            OUTPUT_MAP.put(DOCUMENT_UUID_KEY, DOCUMENT_UUID_VALUE);
+
+            if (mKeyFactory.getMode() == JoinKeyFactory.JoinMode.URL) {
+                if (null == targetUri || !mKeyFactory.set(MAPREDUCE_KEY, targetUri)) {
+                    SKIPPED_NO_ID_COUNTER.increment(1);
+                    LOG.warn("Document " + key + " skipped, because it has no valid target URI");
+                    return;
+                }
             } else {
-                MAPREDUCE_KEY.set(recordId);
+                MAPREDUCE_KEY.set(documentUUID);
             }
 
-            DOCUMENT_UUID_VALUE.set(WebisUUID.generateUUID(
-                    context.getConfiguration().get("webis.mapfile.uuid.prefix"), MAPREDUCE_KEY.toString()).toString());
-            OUTPUT_MAP.put(DOCUMENT_UUID_KEY, DOCUMENT_UUID_VALUE);
+            if (!mKeyFactory.isSampled(MAPREDUCE_KEY)) {
+                NOT_SAMPLED_COUNTER.increment(1);
+                return;
+            }
+
+            // skip documents below the spam threshold before any expensive processing,
+            // false positives are caught by the exact check in the reducer
+            if (null != SPAM_FILTER && !SPAM_FILTER.mightContain(
+                    MAPREDUCE_KEY.getMostSignificantBits(), MAPREDUCE_KEY.getLeastSignificantBits())) {
+                SPAM_COUNTER.increment(1);
+                return;
+            }
+            mParseTimer.stop();
+
+            // attach host statistics and enforce per-host document limit
+            if (null != HOST_STATS && null != hostname) {
+                final int hostIndex = HOST_STATS.find(hostname);
+                if (hostIndex >= 0) {
+                    final int pageCount = HOST_STATS.getPageCount(hostIndex);
+
+                    // keep a deterministic, UUID-based sample of mMaxDocsPerHost pages
+                    if (mMaxDocsPerHost > 0 && pageCount > mMaxDocsPerHost &&
+                            (documentUUID.getLeastSignificantBits() & 0x1fffffffffffffL) * 0x1.0p-53 >=
+                                    (double) mMaxDocsPerHost / pageCount) {
+                        HOST_LIMIT_COUNTER.increment(1);
+                        return;
+                    }
+
+                    HOST_PAGE_COUNT_VALUE.set(pageCount);
+                    OUTPUT_MAP.put(HOST_PAGE_COUNT_KEY, HOST_PAGE_COUNT_VALUE);
+                    HOST_INLINK_COUNT_VALUE.set(HOST_STATS.getInlinkCount(hostIndex));
+                    OUTPUT_MAP.put(HOST_INLINK_COUNT_KEY, HOST_INLINK_COUNT_VALUE);
+                    if (HOST_STATS.getAvgSpamRank(hostIndex) >= 0.0f) {
+                        HOST_AVG_SPAM_RANK_VALUE.set(HOST_STATS.getAvgSpamRank(hostIndex));
+                        OUTPUT_MAP.put(HOST_AVG_SPAM_RANK_KEY, HOST_AVG_SPAM_RANK_VALUE);
+                    }
+                }
+            }
 
             // process content (HTTP) headers
+            String contentType = null;
             it = contentHeaders.keys();
             while (it.hasNext()) {
                 final String k = (String) it.next();
                 if (k.equalsIgnoreCase("Content-Type")) {
-                    final String[] splits = contentHeaders.getString(k).split(";");
+                    contentType = contentHeaders.getString(k);
+                    final String[] splits = contentType.split(";");
                     CONTENT_TYPE_VALUE.set(splits[0].trim());
                     OUTPUT_MAP.put(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE);
                 } else if (k.equalsIgnoreCase("Date")) {
-                    final Calendar c = Calendar.getInstance();
-                    final SimpleDateFormat dfInput  = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-                    final SimpleDateFormat dfOutput = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX");
-                    try {
-                        c.setTime(dfInput.parse(contentHeaders.getString(k)));
-                        DATE_VALUE.set(dfOutput.format(c.getTime()));
+                    final long date = HttpDateParser.parse(contentHeaders.getString(k));
+                    if (HttpDateParser.INVALID != date) {
+                        mDateParser.formatIso(date, DATE_VALUE);
                         OUTPUT_MAP.put(DATE_KEY, DATE_VALUE);
-                    } catch (ParseException ignored) { }
+                    } else {
+                        DATE_PARSE_ERROR_COUNTER.increment(1);
+                    }
                 }
             }
 
-            // full content extraction (all text nodes)
-            String fullContent = ContentExtractor.extractEverything(contentBody);
+            // decode body with declared charset
+            final String contentBody = mBodyDecoder.decode(rawContentBody,
+                    BodyDecoder.sniffCharset(contentType, rawContentBody));
+            if (contentBody != rawContentBody) {
+                CHARSET_REDECODED_COUNTER.increment(1);
+            }
+
+            // parse HTML once for all DOM-based extractors
+            Document bodyDoc = null;
+            String fullContent;
+            mHtmlTimer.start();
+            try {
+                bodyDoc = Jsoup.parse(contentBody, null != targetUri ? targetUri : "");
+
+                // full content extraction (all text nodes)
+                fullContent = ContentExtractor.extractEverything(bodyDoc);
+            } catch (Exception e) {
+                LOG.warn("HTML parsing of document" + key + " failed");
+                HTML_PARSER_ERROR_COUNTER.increment(1);
+                bodyDoc = null;
+                fullContent = contentBody.trim();
+            }
+            mHtmlTimer.stop();
 
             // language detection
             String lang;
+            mLangDetectTimer.start();
             lang = LANGUAGE_DETECTOR.detect(fullContent);
+            mLangDetectTimer.stop();
             if (lang.isEmpty()) {
                 lang = "unknown";
                 LOG.warn("Language detection for document " + key + " failed");
@@ -228,57 +434,168 @@ public class WarcMapper extends Mapper<Text, Text, Text, MapWritable> implements
             LANG_VALUE.set(lang);
             OUTPUT_MAP.put(LANG_KEY, LANG_VALUE);
 
+            // text fields of unsupported languages go into the shared fallback fields
+            final String fieldLang = mLanguageFields.get(lang);
+
             // create plaintext rendering from content body
-            String mainContent;
+            final List<String> sentences;
+            mMainContentTimer.start();
             if (lang.equalsIgnoreCase("en")) {
-                mainContent = ContentExtractor.extract(contentBody, "en");
+                sentences = ContentExtractor.extractSentences(contentBody, "en");
             } else {
-                mainContent = ContentExtractor.extract(contentBody, lang, "en");
+                sentences = ContentExtractor.extractSentences(contentBody, lang, "en");
             }
-            if (null == mainContent || mainContent.getBytes().length < 5) {
-                int size = null != mainContent ? mainContent.getBytes().length : 0;
+            final String mainContent = ContentExtractor.join(sentences);
+            mMainContentTimer.stop();
+            if (null == mainContent || BodyDecoder.utf8Length(mainContent) < 5) {
+                int size = null != mainContent ? BodyDecoder.utf8Length(mainContent) : 0;
                 LOG.warn("Document " + key + " with size " + size + " bytes skipped (too small)");
                 TOO_SMALL_COUNTER.increment(1);
                 return;
             }
-            String headings = ContentExtractor.extractHeadings(contentBody, 3);
+            String headings = null != bodyDoc ? ContentExtractor.extractHeadings(bodyDoc, 3) : "";
 
             // add extracted body to output document
             BODY_LENGTH_VALUE.set(mainContent.length());
             OUTPUT_MAP.put(BODY_LENGTH_KEY, BODY_LENGTH_VALUE);
 
             BODY_VALUE.set(mainContent);
-            OUTPUT_MAP.put(new Text(BODY_KEY_PREFIX + lang), BODY_VALUE);
+            OUTPUT_MAP.put(BODY_KEYS.get(fieldLang), BODY_VALUE);
 
             FULL_BODY_VALUE.set(fullContent);
-            OUTPUT_MAP.put(new Text(FULL_BODY_KEY_PREFIX + lang), FULL_BODY_VALUE);
+            OUTPUT_MAP.put(FULL_BODY_KEYS.get(fieldLang), FULL_BODY_VALUE);
 
             HEADINGS_VALUE.set(headings);
-            OUTPUT_MAP.put(new Text(HEADINGS_KEY_PREFIX + lang), HEADINGS_VALUE);
+            OUTPUT_MAP.put(HEADINGS_KEYS.get(fieldLang), HEADINGS_VALUE);
 
-            // parse title and meta tags within body source
-            try {
-                Document bodyDoc = Jsoup.parse(contentBody);
+            SNIPPETS_VALUE.set(mSnippetSelector.select(sentences));
+            OUTPUT_MAP.put(SNIPPETS_KEYS.get(fieldLang), SNIPPETS_VALUE);
+
+            // extract title and meta tags from parsed body
+            if (null != bodyDoc) {
                 TITLE_VALUE.set(getDocTitle(bodyDoc, 90));
-                OUTPUT_MAP.put(new Text(TITLE_KEY_PREFIX + lang), TITLE_VALUE);
+                OUTPUT_MAP.put(TITLE_KEYS.get(fieldLang), TITLE_VALUE);
 
                 META_DESC_VALUE.set(getMetaTagContents(bodyDoc, "name", "description", 400));
-                OUTPUT_MAP.put(new Text(META_DESC_KEY_PREFIX + lang), META_DESC_VALUE);
+                OUTPUT_MAP.put(META_DESC_KEYS.get(fieldLang), META_DESC_VALUE);
 
                 META_KEYWORDS_VALUE.set(getMetaTagContents(bodyDoc, "name", "keywords", 400));
                 OUTPUT_MAP.put(META_KEYWORDS_KEY, META_KEYWORDS_VALUE);
-            } catch (Exception e) {
-                LOG.warn("HTML parsing of document" + key + " failed");
-                HTML_PARSER_ERROR_COUNTER.increment(1);
             }
 
             // write final document to context
+            MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_DOCUMENT);
             context.write(MAPREDUCE_KEY, OUTPUT_MAP);
             RECORDS_COUNTER.increment(1);
+            context.getCounter(LANGUAGE_COUNTER_GROUP, fieldLang).increment(1);
+
+            // the document has been written already, so failures here must not skip or dead-letter it
+            if (mOutlinks && null != bodyDoc && null != targetUri) {
+                try {
+                    writeOutlinkAnchors(bodyDoc, targetUri, fieldLang, context);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to extract outlinks of document " + key + ": " + e);
+                    OUTLINK_ERROR_COUNTER.increment(1);
+                }
+            }
         } catch (JSONException e) {
             LOG.error("Document " + key + " skipped due to JSON parsing error: " + e.getMessage());
             JSON_PARSE_ERROR_COUNTER.increment(1);
+            writeDeadLetter(key, value, "json_parse_error: " + e.getMessage());
+        } catch (RuntimeException e) {
+            LOG.error("Document " + key + " skipped due to extraction error: " + e);
+            EXTRACTION_ERROR_COUNTER.increment(1);
+            writeDeadLetter(key, value, "extraction_error: " + e);
+        } finally {
+            // record durations of skipped and failed records as well (no-op for timers already stopped)
+            mParseTimer.stop();
+            mHtmlTimer.stop();
+            mLangDetectTimer.stop();
+            mMainContentTimer.stop();
+            mMapTotalTimer.stop();
+        }
+    }
+
+    @Override
+    protected void cleanup(final Context context) throws IOException, InterruptedException
+    {
+        if (null != mDeadLetters) {
+            mDeadLetters.close();
+        }
+        if (null != mQuarantine) {
+            mQuarantine.close();
+        }
+        super.cleanup(context);
+    }
+
+    /**
+     * Extract outlinks with their anchor texts from a parsed document and emit them as anchor records
+     * keyed by their canonical target URL, so they are joined with their target documents in this job.
+     * Anchor texts are assumed to be in the language of the linking document.
+     *
+     * @param doc parsed document (with the document URL as base URI)
+     * @param documentUri document URL
+     * @param fieldLang field language of the document
+     * @param context mapper context
+     */
+    private void writeOutlinkAnchors(final Document doc, final String documentUri, final String fieldLang,
+                                     final Context context) throws IOException, InterruptedException
+    {
+        final String sourceUrl = UrlCanonicalizer.canonicalize(documentUri);
+        if (null == sourceUrl) {
+            return;
+        }
+        final String sourceHost = UrlCanonicalizer.host(sourceUrl);
+
+        mOutlinkTargets.clear();
+        mOutlinkTargets.add(sourceUrl);
+        int numAnchors = 0;
+        for (final Element link : doc.select("a[href]")) {
+            if (numAnchors >= mMaxOutlinks) {
+                break;
+            }
+
+            final String anchorText = truncateSnippet(link.text().trim(), WarcAnchorMapper.MAX_LENGTH);
+            if (anchorText.isEmpty()) {
+                continue;
+            }
+            final String targetUrl = UrlCanonicalizer.canonicalize(link.absUrl("href"));
+            if (null == targetUrl || !mOutlinkTargets.add(targetUrl) ||
+                    (!mOutlinksSameHost && UrlCanonicalizer.host(targetUrl).equals(sourceHost))) {
+                continue;
+            }
+            if (!mKeyFactory.set(MAPREDUCE_KEY, targetUrl) || !mKeyFactory.isSampled(MAPREDUCE_KEY)) {
+                continue;
+            }
+
+            OUTPUT_MAP.clear();
+            ANCHOR_TEXTS_VALUE.set(anchorText);
+            OUTPUT_MAP.put(ANCHOR_TEXTS_KEYS.get(fieldLang), ANCHOR_TEXTS_VALUE);
+            MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_ANCHORS);
+            context.write(MAPREDUCE_KEY, OUTPUT_MAP);
+            OUTLINK_ANCHORS_COUNTER.increment(1);
+            ++numAnchors;
+        }
+    }
+
+    /**
+     * Write a failed record to the dead letters if enabled. UUID and URL are taken from the
+     * output document as far as they have been extracted before the failure.
+     *
+     * @param key input key
+     * @param value input record
+     * @param reason failure reason
+     */
+    private void writeDeadLetter(final Text key, final Text value, final String reason) throws IOException
+    {
+        if (null == mDeadLetters) {
+            return;
         }
+        final Writable uuid = OUTPUT_MAP.get(DOCUMENT_UUID_KEY);
+        final Writable url = OUTPUT_MAP.get(WARC_TARGET_URI_KEY);
+        mDeadLetters.write(DeadLetterWriter.SOURCE_MAP, reason, key.toString(),
+                null != uuid ? uuid.toString() : null, null != url ? url.toString() : null, value.toString());
+        DEAD_LETTERS_COUNTER.increment(1);
     }
 
     /**
@@ -37,18 +37,32 @@ import java.io.IOException;
  *
  * @author Janek Bevendorff
  */
-public class WarcPageRankMapper extends Mapper<LongWritable, Text, Text, MapWritable> implements WarcMapReduceBase
+public class WarcPageRankMapper extends Mapper<LongWritable, Text, JoinKeyWritable, MapWritable> implements WarcMapReduceBase
 {
+    protected JoinKeyFactory mKeyFactory;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        TimedCompressionCodec.bindCounters(context);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+    }
+
     @Override
     public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
     {
         final String[] parts = value.toString().split("\\s+");
 
-        MAPREDUCE_KEY.set(parts[0]);
+        if (!mKeyFactory.set(MAPREDUCE_KEY, parts[0]) ||
+                !mKeyFactory.isSampled(MAPREDUCE_KEY)) {
+            return;
+        }
 
         OUTPUT_MAP.clear();
         PAGE_RANK_VALUE.set(Float.valueOf(parts[1]));
         OUTPUT_MAP.put(PAGE_RANK_KEY, PAGE_RANK_VALUE);
+        MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_SCORES);
         context.write(MAPREDUCE_KEY, OUTPUT_MAP);
     }
 }
\ No newline at end of file
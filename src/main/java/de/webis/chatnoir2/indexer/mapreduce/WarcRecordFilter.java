@@ -0,0 +1,75 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Filter for raw WARC JSON records, which is applied by {@link WarcInputFormat} before
+ * records are handed to the mapper. Implementations should only look at as few bytes as
+ * possible and leave full validation to the mapper.
+ *
+ * Implementations are instantiated via reflection and may implement
+ * {@link org.apache.hadoop.conf.Configurable} to receive the job configuration.
+ *
+ * @author Janek Bevendorff
+ */
+public interface WarcRecordFilter
+{
+    /**
+     * Filter decision.
+     */
+    enum Result {
+        /**
+         * Record is passed to the mapper.
+         */
+        ACCEPT,
+
+        /**
+         * Record has a WARC type which is not allowed.
+         */
+        REJECT_WARC_TYPE,
+
+        /**
+         * Record has a non-plain (binary) payload encoding.
+         */
+        REJECT_BINARY,
+
+        /**
+         * Record has a content type which is not allowed.
+         */
+        REJECT_CONTENT_TYPE
+    }
+
+    /**
+     * Decide whether a record should be processed.
+     *
+     * @param key record key
+     * @param value serialized WARC JSON record
+     * @return filter decision
+     */
+    Result filter(final Text key, final Text value);
+}
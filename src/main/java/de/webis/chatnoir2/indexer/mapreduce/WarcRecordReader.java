@@ -0,0 +1,145 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Record reader wrapping a {@link SequenceFileRecordReader}, which skips filtered records
+ * and counts them in the corresponding record counters.
+ *
+ * If a split cost history is configured, the time from opening the split until all of it
+ * has been read (and thus processed by the mapper) is recorded in the {@link SplitCostHistory}.
+ *
+ * @author Janek Bevendorff
+ */
+public class WarcRecordReader extends RecordReader<Text, Text> implements WarcMapReduceBase
+{
+    private final SequenceFileRecordReader<Text, Text> mReader = new SequenceFileRecordReader<>();
+    private WarcRecordFilter mFilter;
+
+    private Counter mTotalRecordsCounter;
+    private Counter mNoResponseRecordCounter;
+    private Counter mBinaryCounter;
+    private Counter mContentTypeCounter;
+
+    private Configuration mConf;
+    private Path mHistoryDir = null;
+    private FileSplit mSplit;
+    private String mAttemptId;
+    private long mStartTime;
+    private boolean mFinished = false;
+
+    @Override
+    public void initialize(final InputSplit split, final TaskAttemptContext context) throws IOException, InterruptedException
+    {
+        mReader.initialize(split, context);
+
+        final Configuration conf = context.getConfiguration();
+        mFilter = ReflectionUtils.newInstance(conf.getClass(CONF_FILTER_CLASS,
+                WarcHeaderRecordFilter.class, WarcRecordFilter.class), conf);
+
+        mTotalRecordsCounter     = context.getCounter(RecordCounters.TOTAL_RECORDS);
+        mNoResponseRecordCounter = context.getCounter(RecordCounters.SKIPPED_RECORDS_NO_RESPONSE_RECORD);
+        mBinaryCounter           = context.getCounter(RecordCounters.SKIPPED_RECORDS_BINARY);
+        mContentTypeCounter      = context.getCounter(RecordCounters.SKIPPED_RECORDS_CONTENT_TYPE);
+
+        mConf = conf;
+        if (null != conf.get(CONF_SPLIT_HISTORY) && split instanceof FileSplit) {
+            mHistoryDir = new Path(conf.get(CONF_SPLIT_HISTORY));
+            mSplit = (FileSplit) split;
+            mAttemptId = context.getTaskAttemptID().toString();
+            mStartTime = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException
+    {
+        while (mReader.nextKeyValue()) {
+            final WarcRecordFilter.Result result = mFilter.filter(mReader.getCurrentKey(), mReader.getCurrentValue());
+            if (result == WarcRecordFilter.Result.ACCEPT) {
+                return true;
+            }
+
+            // accepted records are counted by the mapper
+            mTotalRecordsCounter.increment(1);
+            switch (result) {
+                case REJECT_WARC_TYPE:
+                    mNoResponseRecordCounter.increment(1);
+                    break;
+                case REJECT_BINARY:
+                    mBinaryCounter.increment(1);
+                    break;
+                case REJECT_CONTENT_TYPE:
+                    mContentTypeCounter.increment(1);
+                    break;
+            }
+        }
+        mFinished = true;
+        return false;
+    }
+
+    @Override
+    public Text getCurrentKey()
+    {
+        return mReader.getCurrentKey();
+    }
+
+    @Override
+    public Text getCurrentValue()
+    {
+        return mReader.getCurrentValue();
+    }
+
+    @Override
+    public float getProgress() throws IOException
+    {
+        return mReader.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        mReader.close();
+
+        if (null != mHistoryDir && mFinished) {
+            SplitCostHistory.record(mHistoryDir, mConf, SplitCostHistory.partitionName(mSplit.getPath()),
+                    mAttemptId, mSplit.getLength(), System.currentTimeMillis() - mStartTime);
+        }
+    }
+}
@@ -25,60 +25,226 @@
 
 package de.webis.chatnoir2.indexer.mapreduce;
 
+import de.webis.chatnoir2.indexer.util.JsonDocumentSerializer;
+import de.webis.chatnoir2.indexer.util.QualityScore;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.util.ReflectionUtils;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Reducer for aggregating mapper results and generating JSON docs which are sent to ElasticSearch.
  *
+ * Input values are sorted by record type (see {@link JoinKeyWritable}), so the document record
+ * of a key arrives first, followed by its scores and anchors. Values are streamed into reducer-owned
+ * copies whose instances are reused across keys and anchor texts are capped per field, so heap usage
+ * does not grow with the number of values of a key.
+ *
+ * Documents are serialized to JSON right away by a {@link JsonDocumentSerializer}, so es-hadoop
+ * does not need to convert the {@link MapWritable} itself.
+ *
+ * In priority mode, documents are not sent right away, but spilled to local files by priority tier
+ * (derived from their {@link QualityScore}). They are sent in order of descending priority after all
+ * input has been reduced, until an optional deadline is reached.
+ *
  * @author Janek Bevendorff
  */
-public class WarcReducer extends Reducer<Text, MapWritable, NullWritable, MapWritable> implements WarcMapReduceBase
+public class WarcReducer extends Reducer<JoinKeyWritable, MapWritable, NullWritable, Text> implements WarcMapReduceBase
 {
     protected static Counter GENERATED_COUNTER;
     protected static Counter EMPTY_COUNTER;
     protected static Counter PARSE_ERROR_COUNTER;
+    protected static Counter ANCHORS_DROPPED_COUNTER;
+
+    private static final byte[] BODY_KEY_PREFIX_BYTES         = BODY_KEY_PREFIX.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ANCHOR_TEXTS_KEY_PREFIX_BYTES = ANCHOR_TEXTS_KEY_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    private final HashMap<Text, PooledField> mFieldPool = new HashMap<>();
+    private final HashMap<Text, AnchorBuffer> mAnchorPool = new HashMap<>();
+    private final DataOutputBuffer mCopyOutputBuffer = new DataOutputBuffer();
+    private final DataInputBuffer mCopyInputBuffer = new DataInputBuffer();
+    private final JsonDocumentSerializer mSerializer = new JsonDocumentSerializer();
+    private final Text mJsonDocument = new Text();
+
+    protected int mMaxAnchors;
+    protected boolean mDryRun;
+    protected StageTimer mReduceTimer;
+    protected StageTimer mSerializeTimer;
+    protected Counter mDryRunBytesCounter;
+
+    /**
+     * Number of priority tiers.
+     */
+    protected static final int NUM_PRIORITY_TIERS = 20;
+
+    protected Counter mPrioritySkippedCounter;
+    protected Counter mDeadlineSkippedCounter;
+    protected Counter mSpamSkippedCounter;
+    protected Counter mNoDocumentCounter;
+    protected long mSpamThreshold;
+    protected QualityScore mQualityScore;
+    protected boolean mPriorityMode;
+    protected double mPriorityMin;
+    protected double mPriorityMax;
+    protected long mDeadline;
+    protected File[] mTierFiles;
+    protected DataOutputStream[] mTierStreams;
+    protected long[] mTierCounts;
+
+    /**
+     * Smallest quality score written, since rank features must be positive.
+     */
+    protected static final float MIN_QUALITY_SCORE = 1e-6f;
+
+    /**
+     * Reusable copy of a document field.
+     */
+    private static class PooledField
+    {
+        final Text key;
+        Writable value;
+
+        PooledField(final Text key)
+        {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Reusable buffer for anchor texts of one field.
+     */
+    private static class AnchorBuffer
+    {
+        final Text key;
+        final ArrayList<Text> texts = new ArrayList<>();
+        final TextArrayWritable array = new TextArrayWritable();
+        int size = 0;
+
+        AnchorBuffer(final Text key)
+        {
+            this.key = key;
+        }
+
+        Text next()
+        {
+            if (size == texts.size()) {
+                texts.add(new Text());
+            }
+            return texts.get(size++);
+        }
+    }
 
     @Override
     protected void setup(final Context context) throws IOException, InterruptedException
     {
         super.setup(context);
+        TimedCompressionCodec.bindCounters(context);
+
+        PARSE_ERROR_COUNTER     = context.getCounter(RecordCounters.SKIPPED_RECORDS_JSON_PARSE_ERROR);
+        GENERATED_COUNTER       = context.getCounter(RecordCounters.GENERATED_DOCS);
+        EMPTY_COUNTER           = context.getCounter(RecordCounters.NO_CONTENT);
+        ANCHORS_DROPPED_COUNTER = context.getCounter(RecordCounters.ANCHOR_TEXTS_DROPPED);
 
-        PARSE_ERROR_COUNTER = context.getCounter(RecordCounters.SKIPPED_RECORDS_JSON_PARSE_ERROR);
-        GENERATED_COUNTER   = context.getCounter(RecordCounters.GENERATED_DOCS);
-        EMPTY_COUNTER       = context.getCounter(RecordCounters.NO_CONTENT);
+        mMaxAnchors = context.getConfiguration().getInt(CONF_MAX_ANCHORS, 1000);
+        mDryRun = context.getConfiguration().getBoolean(CONF_DRY_RUN, false);
+        mReduceTimer = new StageTimer(context, "reduce", mDryRun);
+        mSerializeTimer = new StageTimer(context, "reduce_serialize", mDryRun);
+        mDryRunBytesCounter = context.getCounter(RecordCounters.DRY_RUN_OUTPUT_BYTES);
+
+        final Configuration conf = context.getConfiguration();
+        mPrioritySkippedCounter = context.getCounter(RecordCounters.SKIPPED_RECORDS_PRIORITY);
+        mDeadlineSkippedCounter = context.getCounter(RecordCounters.SKIPPED_RECORDS_DEADLINE);
+        mSpamSkippedCounter     = context.getCounter(RecordCounters.SKIPPED_RECORDS_SPAM);
+        mNoDocumentCounter      = context.getCounter(RecordCounters.NO_DOCUMENT);
+        mSpamThreshold = conf.getLong(CONF_SPAM_THRESHOLD, -1);
+        mQualityScore = new QualityScore(conf);
+        mPriorityMode = conf.getBoolean(CONF_PRIORITY, false);
+        mPriorityMin  = conf.getDouble(CONF_PRIORITY_MIN, 0.0);
+        mPriorityMax  = conf.getDouble(CONF_PRIORITY_MAX, 1.0);
+        mDeadline     = conf.getLong(CONF_PRIORITY_DEADLINE, Long.MAX_VALUE);
+
+        if (mPriorityMode) {
+            mTierFiles   = new File[NUM_PRIORITY_TIERS];
+            mTierStreams = new DataOutputStream[NUM_PRIORITY_TIERS];
+            mTierCounts  = new long[NUM_PRIORITY_TIERS];
+            for (int i = 0; i < NUM_PRIORITY_TIERS; ++i) {
+                // task working directory is on local disk
+                mTierFiles[i] = File.createTempFile(String.format("priority-tier-%02d-", i), ".bin", new File("."));
+                mTierStreams[i] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mTierFiles[i]), 65536));
+            }
+        }
     }
 
     @Override
-    public void reduce(final Text key, final Iterable<MapWritable> values, final Context context) throws IOException, InterruptedException
+    public void reduce(final JoinKeyWritable key, final Iterable<MapWritable> values, final Context context) throws IOException, InterruptedException
+    {
+        mReduceTimer.start();
+        try {
+            reduceDocument(key, values, context);
+        } finally {
+            mReduceTimer.stop();
+        }
+    }
+
+    /**
+     * Join all records of one key into an output document and write or spill it.
+     *
+     * @param key join key
+     * @param values records of the key, the document first (if any)
+     * @param context reducer context
+     */
+    private void reduceDocument(final JoinKeyWritable key, final Iterable<MapWritable> values, final Context context) throws IOException, InterruptedException
     {
         OUTPUT_MAP.clear();
+        for (final AnchorBuffer buffer : mAnchorPool.values()) {
+            buffer.size = 0;
+        }
 
         boolean containsContent = false;
-        final HashMap<Text, ArrayList<Text>> anchors = new HashMap<>();
+        boolean first = true;
 
+        // the key is updated with the record type of each value during iteration
         for (final MapWritable value : values) {
-            for (final Writable k : value.keySet()) {
-                final String keyStr = k.toString();
-                final Writable val = value.get(k);
+            if (first) {
+                first = false;
+                if (key.getRecordType() != JoinKeyWritable.TYPE_DOCUMENT) {
+                    // no document for this key (not in this batch or dropped by the mapper),
+                    // don't bother with its scores and anchors
+                    mNoDocumentCounter.increment(1);
+                    return;
+                }
+            }
 
-                if (keyStr.startsWith(ANCHOR_TEXTS_KEY_PREFIX)) {
-                    if (!anchors.containsKey(k)) {
-                        anchors.put((Text) k, new ArrayList<>());
-                    }
-                    anchors.get(k).add((Text) val);
+            for (final Map.Entry<Writable, Writable> entry : value.entrySet()) {
+                final Text k = (Text) entry.getKey();
+                final Writable val = entry.getValue();
+
+                if (startsWith(k, ANCHOR_TEXTS_KEY_PREFIX_BYTES)) {
+                    addAnchor(k, (Text) val);
                 } else {
-                    containsContent |= (keyStr.startsWith(BODY_KEY_PREFIX) && !val.toString().trim().isEmpty());
-                    OUTPUT_MAP.put(k, val);
+                    containsContent |= (startsWith(k, BODY_KEY_PREFIX_BYTES) && hasContent((Text) val));
+                    final PooledField field = copyField(k, val);
+                    OUTPUT_MAP.put(field.key, field.value);
                 }
             }
         }
 
+        // exact spam threshold check, documents without spam rank are dropped as well
+        if (mSpamThreshold >= 0) {
+            final Writable spamRank = OUTPUT_MAP.get(SPAM_RANK_KEY);
+            if (!(spamRank instanceof LongWritable) || ((LongWritable) spamRank).get() < mSpamThreshold) {
+                mSpamSkippedCounter.increment(1);
+                return;
+            }
+        }
+
         // don't continue if there is no content
         if (!containsContent) {
             LOG.warn(String.format("Document %s skipped, no content", key.toString()));
@@ -86,13 +252,168 @@ public class WarcReducer extends Reducer<Text, MapWritable, NullWritable, MapWri
             return;
         }
 
-        for (Text k: anchors.keySet()) {
-            final ArrayWritable anchorsWritable = new ArrayWritable(Text.class);
-            anchorsWritable.set(anchors.get(k).toArray(new Text[anchors.get(k).size()]));
-            OUTPUT_MAP.put(k, anchorsWritable);
+        for (final AnchorBuffer buffer : mAnchorPool.values()) {
+            if (buffer.size > 0) {
+                buffer.array.set(buffer.texts.subList(0, buffer.size).toArray(new Text[buffer.size]));
+                OUTPUT_MAP.put(buffer.key, buffer.array);
+            }
+        }
+
+        // static quality score, also used as indexing priority
+        final double priority = getQualityScore();
+        QUALITY_SCORE_VALUE.set(Math.max(MIN_QUALITY_SCORE, (float) priority));
+        OUTPUT_MAP.put(QUALITY_SCORE_KEY, QUALITY_SCORE_VALUE);
+
+        // priority range filter (upper bound is exclusive unless it is the maximum priority)
+        if (priority < mPriorityMin || (mPriorityMax < 1.0 ? priority >= mPriorityMax : priority > mPriorityMax)) {
+            mPrioritySkippedCounter.increment(1);
+            return;
+        }
+
+        mSerializeTimer.start();
+        mSerializer.serialize(OUTPUT_MAP, mJsonDocument);
+        mSerializeTimer.stop();
+
+        if (mDryRun) {
+            mDryRunBytesCounter.increment(mJsonDocument.getLength());
+        }
+
+        if (mPriorityMode) {
+            final int tier = Math.min(NUM_PRIORITY_TIERS - 1, (int) (priority * NUM_PRIORITY_TIERS));
+            mJsonDocument.write(mTierStreams[tier]);
+            ++mTierCounts[tier];
+        } else {
+            context.write(NullWritable.get(), mJsonDocument);
+            GENERATED_COUNTER.increment(1);
+        }
+    }
+
+    @Override
+    protected void cleanup(final Context context) throws IOException, InterruptedException
+    {
+        super.cleanup(context);
+
+        if (!mPriorityMode) {
+            return;
         }
 
-        context.write(NullWritable.get(), OUTPUT_MAP);
-        GENERATED_COUNTER.increment(1);
+        for (final DataOutputStream stream : mTierStreams) {
+            stream.close();
+        }
+
+        // replay spilled documents starting with the highest tier
+        for (int tier = NUM_PRIORITY_TIERS - 1; tier >= 0; --tier) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(mTierFiles[tier]), 65536))) {
+                for (long i = 0; i < mTierCounts[tier]; ++i) {
+                    if (System.currentTimeMillis() > mDeadline) {
+                        mDeadlineSkippedCounter.increment(mTierCounts[tier] - i);
+                        break;
+                    }
+                    mJsonDocument.readFields(in);
+                    context.write(NullWritable.get(), mJsonDocument);
+                    GENERATED_COUNTER.increment(1);
+                }
+            }
+            if (!mTierFiles[tier].delete()) {
+                LOG.warn("Failed to delete priority tier file " + mTierFiles[tier]);
+            }
+            context.progress();
+        }
+    }
+
+    /**
+     * Calculate the static quality score of the current output document from its ranks and body length.
+     *
+     * @return quality score between 0 and 1
+     */
+    private double getQualityScore()
+    {
+        final Writable spamRank = OUTPUT_MAP.get(SPAM_RANK_KEY);
+        final Writable pageRank = OUTPUT_MAP.get(PAGE_RANK_KEY);
+        final Writable bodyLength = OUTPUT_MAP.get(BODY_LENGTH_KEY);
+        return mQualityScore.score(
+                spamRank instanceof LongWritable ? ((LongWritable) spamRank).get() : -1,
+                pageRank instanceof FloatWritable ? ((FloatWritable) pageRank).get() : -1.0,
+                bodyLength instanceof LongWritable ? ((LongWritable) bodyLength).get() : -1);
+    }
+
+    /**
+     * Copy a field value into a reusable reducer-owned instance.
+     *
+     * @param key field name
+     * @param value field value
+     * @return pooled field holding the copy
+     */
+    private PooledField copyField(final Text key, final Writable value) throws IOException
+    {
+        PooledField field = mFieldPool.get(key);
+        if (null == field) {
+            field = new PooledField(new Text(key));
+            mFieldPool.put(field.key, field);
+        }
+        if (null == field.value || field.value.getClass() != value.getClass()) {
+            field.value = ReflectionUtils.newInstance(value.getClass(), null);
+        }
+
+        if (value instanceof Text) {
+            ((Text) field.value).set((Text) value);
+        } else {
+            mCopyOutputBuffer.reset();
+            value.write(mCopyOutputBuffer);
+            mCopyInputBuffer.reset(mCopyOutputBuffer.getData(), mCopyOutputBuffer.getLength());
+            field.value.readFields(mCopyInputBuffer);
+        }
+        return field;
+    }
+
+    /**
+     * Add a copy of an anchor text to the buffer of its field if the buffer isn't full yet.
+     *
+     * @param key field name
+     * @param anchorText anchor text
+     */
+    private void addAnchor(final Text key, final Text anchorText)
+    {
+        AnchorBuffer buffer = mAnchorPool.get(key);
+        if (null == buffer) {
+            buffer = new AnchorBuffer(new Text(key));
+            mAnchorPool.put(buffer.key, buffer);
+        }
+        if (buffer.size >= mMaxAnchors) {
+            ANCHORS_DROPPED_COUNTER.increment(1);
+            return;
+        }
+        buffer.next().set(anchorText);
+    }
+
+    private static boolean startsWith(final Text text, final byte[] prefix)
+    {
+        if (text.getLength() < prefix.length) {
+            return false;
+        }
+        final byte[] bytes = text.getBytes();
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a text contains anything but whitespace and control characters
+     * (equivalent to <code>!text.toString().trim().isEmpty()</code>).
+     */
+    private static boolean hasContent(final Text text)
+    {
+        final byte[] bytes = text.getBytes();
+        final int length = text.getLength();
+        for (int i = 0; i < length; ++i) {
+            if ((bytes[i] & 0xff) > ' ') {
+                return true;
+            }
+        }
+        return false;
     }
 }
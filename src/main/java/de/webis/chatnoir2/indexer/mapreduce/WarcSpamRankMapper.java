@@ -37,18 +37,37 @@ import java.io.IOException;
  *
  * @author Janek Bevendorff
  */
-public class WarcSpamRankMapper extends Mapper<LongWritable, Text, Text, MapWritable> implements WarcMapReduceBase
+public class WarcSpamRankMapper extends Mapper<LongWritable, Text, JoinKeyWritable, MapWritable> implements WarcMapReduceBase
 {
+    protected JoinKeyFactory mKeyFactory;
+    protected long mThreshold;
+
+    @Override
+    protected void setup(final Context context) throws IOException, InterruptedException
+    {
+        super.setup(context);
+        TimedCompressionCodec.bindCounters(context);
+        mKeyFactory = new JoinKeyFactory(context.getConfiguration());
+        mThreshold = context.getConfiguration().getLong(CONF_SPAM_THRESHOLD, -1);
+    }
+
     @Override
     public void map(final LongWritable key, final Text value, final Context context) throws IOException, InterruptedException
     {
         final String[] parts = value.toString().split("\\s+");
+        final long spamRank = Long.parseLong(parts[0]);
 
-        MAPREDUCE_KEY.set(parts[1]);
+        // ranks below the threshold need not be shuffled, the reducer drops documents without rank anyway
+        if (spamRank < mThreshold ||
+                !mKeyFactory.set(MAPREDUCE_KEY, parts[1]) ||
+                !mKeyFactory.isSampled(MAPREDUCE_KEY)) {
+            return;
+        }
 
         OUTPUT_MAP.clear();
-        SPAM_RANK_VALUE.set(Long.valueOf(parts[0]));
+        SPAM_RANK_VALUE.set(spamRank);
         OUTPUT_MAP.put(SPAM_RANK_KEY, SPAM_RANK_VALUE);
+        MAPREDUCE_KEY.setRecordType(JoinKeyWritable.TYPE_SCORES);
         context.write(MAPREDUCE_KEY, OUTPUT_MAP);
     }
 }
\ No newline at end of file
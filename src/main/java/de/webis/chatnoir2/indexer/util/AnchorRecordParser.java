@@ -0,0 +1,228 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Parser for anchor text records of the form <code>&lt;ID&gt; &lt;TEXT&gt;</code>.
+ *
+ * The parser works directly on the UTF-8 bytes of a {@link Text} line and only records
+ * the offsets of the ID and the anchor text, so lines can be parsed without decoding them
+ * or allocating any objects.
+ *
+ * @author Janek Bevendorff
+ */
+public class AnchorRecordParser
+{
+    /**
+     * Supported document ID schemes.
+     */
+    public enum IdScheme {
+        /**
+         * ClueWeb TREC IDs (e.g. <code>clueweb12-0000tw-00-00000</code>).
+         */
+        TREC_ID,
+
+        /**
+         * WARC record IDs (e.g. <code>&lt;urn:uuid:...&gt;</code>).
+         */
+        WARC_RECORD_ID,
+
+        /**
+         * Target URLs (e.g. as found in CommonCrawl link graphs).
+         */
+        URL;
+
+        /**
+         * Look up an ID scheme by its case-insensitive name.
+         *
+         * @param name scheme name (e.g. <code>trec_id</code>)
+         * @return ID scheme
+         */
+        public static IdScheme fromName(final String name)
+        {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final byte[] TREC_ID_PREFIX   = "clueweb".getBytes();
+    private static final byte[] RECORD_ID_PREFIX = "<urn:".getBytes();
+    private static final byte[] HTTP_PREFIX      = "http://".getBytes();
+    private static final byte[] HTTPS_PREFIX     = "https://".getBytes();
+
+    private final IdScheme mScheme;
+    private final int mMaxTextLength;
+
+    private byte[] mBytes;
+    private int mIdStart;
+    private int mIdLength;
+    private int mTextStart;
+    private int mTextLength;
+
+    /**
+     * @param scheme ID scheme of the parsed records
+     * @param maxTextLength number of characters after which to truncate anchor texts
+     */
+    public AnchorRecordParser(final IdScheme scheme, final int maxTextLength)
+    {
+        mScheme = scheme;
+        mMaxTextLength = maxTextLength;
+    }
+
+    /**
+     * Parse an anchor line. Offsets returned by the getters are only valid until
+     * the next call and as long as the line isn't modified.
+     *
+     * @param line input line
+     * @return true if the line is a valid anchor record with non-empty text
+     */
+    public boolean parse(final Text line)
+    {
+        mBytes = line.getBytes();
+        final int end = line.getLength();
+
+        int pos = 0;
+        while (pos < end && !isWhitespace(mBytes[pos])) {
+            ++pos;
+        }
+        mIdStart = 0;
+        mIdLength = pos;
+        if (!isValidId()) {
+            return false;
+        }
+
+        while (pos < end && isWhitespace(mBytes[pos])) {
+            ++pos;
+        }
+        mTextStart = pos;
+
+        // truncate after mMaxTextLength UTF-16 characters without splitting multi-byte sequences
+        int numChars = 0;
+        while (pos < end) {
+            final int b = mBytes[pos] & 0xff;
+            final int seqLength = b < 0x80 ? 1 : (b < 0xe0 ? 2 : (b < 0xf0 ? 3 : 4));
+            numChars += seqLength == 4 ? 2 : 1;
+            if (numChars > mMaxTextLength) {
+                break;
+            }
+            pos = Math.min(end, pos + seqLength);
+        }
+        mTextLength = pos - mTextStart;
+
+        return mTextLength > 0;
+    }
+
+    /**
+     * @return backing byte array of the last parsed line
+     */
+    public byte[] getBytes()
+    {
+        return mBytes;
+    }
+
+    public int getIdStart()
+    {
+        return mIdStart;
+    }
+
+    public int getIdLength()
+    {
+        return mIdLength;
+    }
+
+    public int getTextStart()
+    {
+        return mTextStart;
+    }
+
+    public int getTextLength()
+    {
+        return mTextLength;
+    }
+
+    private boolean isValidId()
+    {
+        switch (mScheme) {
+            case TREC_ID:
+                return isValidTrecId();
+            case WARC_RECORD_ID:
+                return mIdLength > RECORD_ID_PREFIX.length && startsWith(RECORD_ID_PREFIX)
+                        && mBytes[mIdStart + mIdLength - 1] == '>';
+            case URL:
+                return startsWith(HTTP_PREFIX) || startsWith(HTTPS_PREFIX);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Check for <code>clueweb\d{2}-\w{6}-\d{2}-\d{5}</code>, which matches both
+     * ClueWeb09 (<code>en0000</code>) and ClueWeb12 (<code>0000tw</code>) segment names.
+     */
+    private boolean isValidTrecId()
+    {
+        if (mIdLength != 25 || !startsWith(TREC_ID_PREFIX)) {
+            return false;
+        }
+
+        final int s = mIdStart;
+        return isDigit(s + 7) && isDigit(s + 8) && mBytes[s + 9] == '-'
+                && isWordChar(s + 10) && isWordChar(s + 11) && isWordChar(s + 12)
+                && isWordChar(s + 13) && isWordChar(s + 14) && isWordChar(s + 15)
+                && mBytes[s + 16] == '-' && isDigit(s + 17) && isDigit(s + 18) && mBytes[s + 19] == '-'
+                && isDigit(s + 20) && isDigit(s + 21) && isDigit(s + 22) && isDigit(s + 23) && isDigit(s + 24);
+    }
+
+    private boolean startsWith(final byte[] prefix)
+    {
+        if (mIdLength < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            if ((mBytes[mIdStart + i] | 0x20) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDigit(final int pos)
+    {
+        return mBytes[pos] >= '0' && mBytes[pos] <= '9';
+    }
+
+    private boolean isWordChar(final int pos)
+    {
+        final byte b = mBytes[pos];
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+    }
+
+    private static boolean isWhitespace(final byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0b;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Charset-aware decoder for HTML bodies of WARC records.
+ *
+ * The body of a WARC JSON record is stored as a string that was decoded without regard to the
+ * charset declared by the page, which usually results in the raw bytes being mapped one-to-one
+ * to characters (ISO-8859-1). Pages in other charsets (most notably UTF-8) then end up as mojibake.
+ * This decoder recovers the original bytes from such strings and decodes them once with the
+ * declared charset into reusable buffers. Strings that don't look like byte-wise decoded text
+ * or cannot be decoded cleanly with the declared charset are left untouched.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author Janek Bevendorff
+ */
+public class BodyDecoder
+{
+    /**
+     * Number of characters at the beginning of a document which are searched for a meta charset declaration.
+     */
+    private static final int META_SNIFF_LENGTH = 4096;
+
+    private static final Pattern HEADER_CHARSET_PATTERN = Pattern.compile(
+            "charset\\s*=\\s*[\"']?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern META_CHARSET_PATTERN = Pattern.compile(
+            "<meta\\s[^>]*charset\\s*=\\s*[\"']?\\s*([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+
+    private final HashMap<String, CharsetDecoder> mDecoders = new HashMap<>();
+    private ByteBuffer mByteBuffer = ByteBuffer.allocate(64 * 1024);
+    private CharBuffer mCharBuffer = CharBuffer.allocate(64 * 1024);
+
+    /**
+     * Determine the charset of a document from its HTTP Content-Type header or, if
+     * the header doesn't declare one, from a meta tag at the beginning of the document.
+     *
+     * @param contentType value of the HTTP Content-Type header (may be null)
+     * @param html HTML source text
+     * @return declared charset or null if none was declared or the charset is not supported
+     */
+    public static Charset sniffCharset(final String contentType, final String html)
+    {
+        String charsetName = null;
+        if (null != contentType) {
+            final Matcher m = HEADER_CHARSET_PATTERN.matcher(contentType);
+            if (m.find()) {
+                charsetName = m.group(1);
+            }
+        }
+        if (null == charsetName && null != html) {
+            final Matcher m = META_CHARSET_PATTERN.matcher(html);
+            m.region(0, Math.min(html.length(), META_SNIFF_LENGTH));
+            if (m.find()) {
+                charsetName = m.group(1);
+            }
+        }
+        if (null == charsetName) {
+            return null;
+        }
+
+        try {
+            return Charset.forName(charsetName.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decode an HTML body with its declared charset if it was byte-wise decoded before.
+     *
+     * @param body body text as stored in the record
+     * @param charset declared charset (may be null)
+     * @return decoded body or the original body if it doesn't need to or can't be decoded
+     */
+    public String decode(final String body, final Charset charset)
+    {
+        if (null == body || null == charset || charset.equals(StandardCharsets.ISO_8859_1) ||
+                charset.equals(StandardCharsets.US_ASCII)) {
+            return body;
+        }
+
+        // recover bytes, bodies containing characters outside the single-byte range are already decoded
+        final int length = body.length();
+        if (mByteBuffer.capacity() < length) {
+            mByteBuffer = ByteBuffer.allocate(length);
+        }
+        mByteBuffer.clear();
+        boolean ascii = true;
+        for (int i = 0; i < length; ++i) {
+            final char c = body.charAt(i);
+            if (c > 0xff) {
+                return body;
+            }
+            ascii &= c < 0x80;
+            mByteBuffer.put((byte) c);
+        }
+        if (ascii) {
+            // ASCII-compatible charsets would produce the same string
+            return body;
+        }
+        mByteBuffer.flip();
+
+        final CharsetDecoder decoder = getDecoder(charset);
+        if (mCharBuffer.capacity() < length) {
+            mCharBuffer = CharBuffer.allocate(length);
+        }
+        mCharBuffer.clear();
+        try {
+            CoderResult result = decoder.decode(mByteBuffer, mCharBuffer, true);
+            if (result.isUnderflow()) {
+                result = decoder.flush(mCharBuffer);
+            }
+            if (!result.isUnderflow()) {
+                // malformed input or (in rare cases for multi-char encodings) output overflow
+                result.throwException();
+            }
+        } catch (CharacterCodingException e) {
+            return body;
+        } finally {
+            decoder.reset();
+        }
+
+        mCharBuffer.flip();
+        return mCharBuffer.toString();
+    }
+
+    private CharsetDecoder getDecoder(final Charset charset)
+    {
+        final String name = charset.name().toLowerCase(Locale.ROOT);
+        CharsetDecoder decoder = mDecoders.get(name);
+        if (null == decoder) {
+            decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            mDecoders.put(name, decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * Calculate the number of bytes of the UTF-8 representation of a string without encoding it.
+     *
+     * @param str input string
+     * @return UTF-8 length in bytes
+     */
+    public static int utf8Length(final CharSequence str)
+    {
+        final int length = str.length();
+        int bytes = 0;
+        for (int i = 0; i < length; ++i) {
+            final char c = str.charAt(i);
+            if (c < 0x80) {
+                ++bytes;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+                bytes += 4;
+                ++i;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -36,15 +36,51 @@ import org.jsoup.select.Elements;
 import org.jsoup.select.NodeTraversor;
 import org.jsoup.select.NodeVisitor;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Extractor for plain text contents of HTML documents.
+ *
+ * Main content extractors are pre-configured once per thread and language combination,
+ * so all methods can be used concurrently.
  */
 public class ContentExtractor
 {
-    private static final PotthastJerichoExtractor mExtractor = new PotthastJerichoExtractor();
+    /**
+     * Pre-configured main content extractors per thread, keyed by their extraction languages.
+     */
+    private static final ThreadLocal<HashMap<List<String>, PotthastJerichoExtractor>> EXTRACTORS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Reusable per-thread buffer for joining extracted sentences.
+     */
+    private static final ThreadLocal<StringBuilder> SENTENCE_BUFFER = ThreadLocal.withInitial(StringBuilder::new);
+
+    /**
+     * Get a pre-configured main content extractor for the given languages.
+     *
+     * @param languages languages to extract
+     * @return extractor for the current thread
+     */
+    private static PotthastJerichoExtractor getExtractor(final String... languages)
+    {
+        final HashMap<List<String>, PotthastJerichoExtractor> extractors = EXTRACTORS.get();
+        final List<String> langKey = Arrays.asList(languages);
+        PotthastJerichoExtractor extractor = extractors.get(langKey);
+        if (null == extractor) {
+            extractor = new PotthastJerichoExtractor();
+            extractor.setMinParagraphLengthInCharacters(50);
+            extractor.setTimeoutInSeconds(20);
+            extractor.setExtractLanguages(languages.clone());
+            extractor.setExtractAltTexts(false);
+            extractors.put(Arrays.asList(languages.clone()), extractor);
+        }
+        return extractor;
+    }
 
     /**
      * Extract contents.
@@ -54,19 +90,46 @@ public class ContentExtractor
      * @return extracted plain text (may be empty)
      */
     public static String extract(String html, String... languages)
+    {
+        return join(extractSentences(html, languages));
+    }
+
+    /**
+     * Extract contents as individual sentences.
+     *
+     * @param html HTML source text
+     * @param languages languages to extract
+     * @return extracted sentences (may be empty)
+     */
+    public static List<String> extractSentences(String html, String... languages)
     {
         if (null == html || html.trim().isEmpty()) {
-            return "";
+            return Collections.emptyList();
         }
-        mExtractor.setMinParagraphLengthInCharacters(50);
-        mExtractor.setTimeoutInSeconds(20);
-        mExtractor.setExtractLanguages(languages);
-        mExtractor.setExtractAltTexts(false);
         try {
-            return mExtractor.extractSentences(html).stream().collect(Collectors.joining(" "));
+            return getExtractor(languages).extractSentences(html);
         } catch (Exception e) {
-            return "";
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Join extracted sentences to a plain text.
+     *
+     * @param sentences sentences returned by {@link #extractSentences(String, String...)}
+     * @return plain text (may be empty)
+     */
+    public static String join(final List<String> sentences)
+    {
+        final StringBuilder buffer = SENTENCE_BUFFER.get();
+        buffer.setLength(0);
+        for (final String sentence : sentences) {
+            if (buffer.length() > 0) {
+                buffer.append(' ');
+            }
+            buffer.append(sentence);
         }
+        return buffer.toString();
     }
 
     /**
@@ -82,40 +145,51 @@ public class ContentExtractor
         }
 
         try {
-            String plainText = "";
-            Elements body = Jsoup.parse(html).getElementsByTag("body");
-            if (body.size() > 0) {
-
-                // modified version of org.jsoup.nodes.Element#text() to include alt attribute values
-                final StringBuilder accum = new StringBuilder();
-                new NodeTraversor(new NodeVisitor() {
-                    public void head(Node node, int depth) {
-                        if (node instanceof TextNode) {
-                            TextNode textNode = (TextNode) node;
-                            accum.append(textNode.text());
-                        } else if (node instanceof Element) {
-                            Element element = (Element) node;
-                            boolean hasAlt = element.hasAttr("alt");
-                            if (hasAlt) {
-                                accum.append(StringUtil.normaliseWhitespace(element.attr("alt")));
-                            }
-
-                            if (accum.length() > 0 &&
-                                    (element.isBlock() || hasAlt || element.tag().getName().equals("br")) &&
-                                    !(accum.length() != 0 && accum.charAt(accum.length() - 1) == ' '))
-                                accum.append(" ");
+            return extractEverything(Jsoup.parse(html));
+        } catch (Exception e) {
+            return html.trim();
+        }
+    }
+
+    /**
+     * Extract all textual contents from an already parsed HTML document, not only main article content.
+     *
+     * @param doc parsed HTML document
+     * @return extracted plain text, may be empty
+     */
+    public static String extractEverything(final Document doc)
+    {
+        String plainText = "";
+        Elements body = doc.getElementsByTag("body");
+        if (body.size() > 0) {
+
+            // modified version of org.jsoup.nodes.Element#text() to include alt attribute values
+            final StringBuilder accum = new StringBuilder();
+            new NodeTraversor(new NodeVisitor() {
+                public void head(Node node, int depth) {
+                    if (node instanceof TextNode) {
+                        TextNode textNode = (TextNode) node;
+                        accum.append(textNode.text());
+                    } else if (node instanceof Element) {
+                        Element element = (Element) node;
+                        boolean hasAlt = element.hasAttr("alt");
+                        if (hasAlt) {
+                            accum.append(StringUtil.normaliseWhitespace(element.attr("alt")));
                         }
+
+                        if (accum.length() > 0 &&
+                                (element.isBlock() || hasAlt || element.tag().getName().equals("br")) &&
+                                !(accum.length() != 0 && accum.charAt(accum.length() - 1) == ' '))
+                            accum.append(" ");
                     }
+                }
 
-                    public void tail(Node node, int depth) {}
-                }).traverse(body.get(0));
+                public void tail(Node node, int depth) {}
+            }).traverse(body.get(0));
 
-                plainText = accum.toString().trim();
-            }
-            return plainText;
-        } catch (Exception e) {
-            return html.trim();
+            plainText = accum.toString().trim();
         }
+        return plainText;
     }
 
     /**
@@ -132,25 +206,36 @@ public class ContentExtractor
         }
 
         try {
-            Document doc = Jsoup.parse(html);
-            StringBuilder headings = new StringBuilder();
+            return extractHeadings(Jsoup.parse(html), maxLevel);
+        } catch (Exception e) {
+            return "";
+        }
+    }
 
-            if (maxLevel < 1) {
-                maxLevel = 1;
-            } else if (maxLevel > 6) {
-                maxLevel = 6;
-            }
+    /**
+     * Extract HTML headings from an already parsed HTML document up to a given maximum level.
+     *
+     * @param doc parsed HTML document
+     * @param maxLevel maximum heading level to extract (1-6)
+     * @return extracted headings, separated by newlines
+     */
+    public static String extractHeadings(final Document doc, int maxLevel)
+    {
+        StringBuilder headings = new StringBuilder();
 
-            for (int i = 1; i <= maxLevel; ++i) {
-                List<Element> elements = doc.select(String.format("h%d", i));
-                for (Element e : elements) {
-                    headings.append(StringUtil.normaliseWhitespace(e.text().trim()));
-                }
-            }
+        if (maxLevel < 1) {
+            maxLevel = 1;
+        } else if (maxLevel > 6) {
+            maxLevel = 6;
+        }
 
-            return headings.toString();
-        } catch (Exception e) {
-            return "";
+        for (int i = 1; i <= maxLevel; ++i) {
+            List<Element> elements = doc.select(String.format("h%d", i));
+            for (Element e : elements) {
+                headings.append(StringUtil.normaliseWhitespace(e.text().trim()));
+            }
         }
+
+        return headings.toString();
     }
 }
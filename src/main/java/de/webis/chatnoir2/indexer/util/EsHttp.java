@@ -0,0 +1,107 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Helper for plain HTTP requests to the Elasticsearch cluster configured for es-hadoop.
+ *
+ * @author Janek Bevendorff
+ */
+public class EsHttp
+{
+    /**
+     * Get the Elasticsearch nodes configured in <code>es.nodes</code> as <code>host:port</code> pairs.
+     * Nodes without a port use <code>es.port</code>.
+     *
+     * @param conf job configuration
+     * @return configured nodes (at least one)
+     */
+    public static String[] getNodes(final Configuration conf)
+    {
+        final String[] nodes = conf.getTrimmedStrings("es.nodes", "localhost");
+        final String port = conf.get("es.port", "9200");
+        for (int i = 0; i < nodes.length; ++i) {
+            if (!nodes[i].contains(":")) {
+                nodes[i] += ":" + port;
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Open a connection to the first configured Elasticsearch node.
+     *
+     * @param conf job configuration
+     * @param method HTTP method
+     * @param path request path including query string (without leading slash)
+     * @return opened connection
+     * @throws IOException if the connection cannot be opened
+     * @see #open(Configuration, String, String, String)
+     */
+    public static HttpURLConnection open(final Configuration conf, final String method, final String path) throws IOException
+    {
+        return open(conf, getNodes(conf)[0], method, path);
+    }
+
+    /**
+     * Open a connection to an Elasticsearch node.
+     * Connection settings are taken from the es-hadoop configuration (<code>es.net.ssl</code> and
+     * <code>es.net.http.auth.*</code>).
+     *
+     * @param conf job configuration
+     * @param node node as <code>host:port</code> (see {@link #getNodes(Configuration)})
+     * @param method HTTP method
+     * @param path request path including query string (without leading slash)
+     * @return opened connection
+     * @throws IOException if the connection cannot be opened
+     */
+    public static HttpURLConnection open(final Configuration conf, final String node, final String method,
+                                         final String path) throws IOException
+    {
+        final String scheme = conf.getBoolean("es.net.ssl", false) ? "https" : "http";
+        final URL url = new URL(String.format("%s://%s/%s", scheme, node, path));
+
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(30000);
+        connection.setReadTimeout(30000);
+        final String user = conf.get("es.net.http.auth.user");
+        if (null != user) {
+            final String credentials = user + ":" + conf.get("es.net.http.auth.pass", "");
+            connection.setRequestProperty("Authorization", "Basic " +
+                    Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8)));
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Scanner;
+
+/**
+ * Replicates the Elasticsearch document routing function, so that documents can be
+ * assigned to the shard they will end up in before they are sent to the cluster.
+ *
+ * @author Janek Bevendorff
+ */
+public class EsShardRouting
+{
+    /**
+     * Hash a routing value the same way Elasticsearch does (32-bit Murmur3 with seed 0
+     * over the UTF-16LE bytes of the string), without materializing the byte array.
+     *
+     * @param routing routing value (usually the document ID)
+     * @return 32-bit hash
+     */
+    public static int murmur3Hash(final CharSequence routing)
+    {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        final int numChars = routing.length();
+
+        int h1 = 0;
+        int i = 0;
+        for (; i + 1 < numChars; i += 2) {
+            // one 4-byte block corresponds to two UTF-16 characters
+            int k1 = (routing.charAt(i) & 0xffff) | (routing.charAt(i + 1) << 16);
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        if (i < numChars) {
+            int k1 = routing.charAt(i) & 0xffff;
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+            h1 ^= k1;
+        }
+
+        h1 ^= numChars * 2;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+
+        return h1;
+    }
+
+    /**
+     * Calculate the default number of routing shards Elasticsearch 7+ chooses for an index
+     * that was created without an explicit <code>index.number_of_routing_shards</code> setting.
+     *
+     * @param numShards number of primary shards
+     * @return number of routing shards
+     */
+    public static int defaultRoutingShards(final int numShards)
+    {
+        final int log2MaxNumShards = 10;
+        final int log2NumShards = 32 - Integer.numberOfLeadingZeros(numShards - 1);
+        final int numSplits = Math.max(1, log2MaxNumShards - log2NumShards);
+        return numShards << numSplits;
+    }
+
+    /**
+     * Calculate the ID of the shard a document with the given routing value will be indexed to.
+     *
+     * @param routing routing value (usually the document ID)
+     * @param numShards number of primary shards
+     * @param routingShards number of routing shards
+     * @return shard ID
+     */
+    public static int shardId(final CharSequence routing, final int numShards, final int routingShards)
+    {
+        return Math.floorMod(murmur3Hash(routing), routingShards) / (routingShards / numShards);
+    }
+
+    /**
+     * Retrieve the number of primary shards and routing shards of an existing index.
+     *
+     * @param conf job configuration
+     * @param index index name
+     * @return array containing number of shards and number of routing shards
+     * @throws IOException if index settings could not be retrieved
+     */
+    public static int[] fetchShardCounts(final Configuration conf, final String index) throws IOException
+    {
+        final HttpURLConnection connection = EsHttp.open(conf, "GET", index + "/_settings?flat_settings=true");
+        if (connection.getResponseCode() != 200) {
+            throw new IOException(String.format("Failed to retrieve settings for index '%s': HTTP %d",
+                    index, connection.getResponseCode()));
+        }
+
+        try (InputStream is = connection.getInputStream(); Scanner scanner = new Scanner(is, "UTF-8")) {
+            final JSONObject response = new JSONObject(scanner.useDelimiter("\\A").next());
+            final JSONObject settings = response.getJSONObject(response.keys().next()).getJSONObject("settings");
+
+            final int numShards = settings.getInt("index.number_of_shards");
+            final int routingShards = settings.has("index.number_of_routing_shards") ?
+                    settings.getInt("index.number_of_routing_shards") : defaultRoutingShards(numShards);
+            return new int[] {numShards, routingShards};
+        } catch (JSONException e) {
+            throw new IOException("Invalid index settings response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieve the HTTP address of the node holding a primary shard of an index.
+     *
+     * @param conf job configuration
+     * @param index index name
+     * @param shard shard ID
+     * @return node address as <code>host:port</code>
+     * @throws IOException if the shard or node cannot be found
+     */
+    public static String fetchPrimaryNode(final Configuration conf, final String index, final int shard) throws IOException
+    {
+        try {
+            final JSONArray shards = new JSONArray(get(conf, "_cat/shards/" + index + "?format=json&h=shard,prirep,id"));
+            String nodeId = null;
+            for (int i = 0; i < shards.length(); ++i) {
+                final JSONObject s = shards.getJSONObject(i);
+                if ("p".equals(s.optString("prirep")) && String.valueOf(shard).equals(s.optString("shard"))) {
+                    nodeId = s.optString("id", null);
+                    break;
+                }
+            }
+            if (null == nodeId) {
+                throw new IOException(String.format("Primary of shard %d of index '%s' is not assigned", shard, index));
+            }
+
+            final JSONObject node = new JSONObject(get(conf, "_nodes/" + nodeId + "/http"))
+                    .getJSONObject("nodes").getJSONObject(nodeId);
+            // publish address may be given as "hostname/ip:port"
+            final String address = node.getJSONObject("http").getString("publish_address");
+            return address.substring(address.indexOf('/') + 1);
+        } catch (JSONException e) {
+            throw new IOException("Invalid shard or node response: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Send a GET request and return the response body.
+     */
+    private static String get(final Configuration conf, final String path) throws IOException
+    {
+        final HttpURLConnection connection = EsHttp.open(conf, "GET", path);
+        if (connection.getResponseCode() != 200) {
+            throw new IOException(String.format("Request to '%s' failed: HTTP %d", path, connection.getResponseCode()));
+        }
+        try (InputStream is = connection.getInputStream(); Scanner scanner = new Scanner(is, "UTF-8")) {
+            return scanner.useDelimiter("\\A").next();
+        }
+    }
+}
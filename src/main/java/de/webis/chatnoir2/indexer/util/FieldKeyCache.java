@@ -0,0 +1,66 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.io.Text;
+
+import java.util.HashMap;
+
+/**
+ * Cache for language-specific output field keys (e.g. <code>body_lang.en</code>),
+ * so they don't need to be allocated for every record.
+ *
+ * @author Janek Bevendorff
+ */
+public class FieldKeyCache
+{
+    private final String mPrefix;
+    private final HashMap<String, Text> mKeys = new HashMap<>();
+
+    /**
+     * @param prefix field name prefix (e.g. <code>body_lang.</code>)
+     */
+    public FieldKeyCache(final String prefix)
+    {
+        mPrefix = prefix;
+    }
+
+    /**
+     * Get the field key for a language. The returned key is shared and must not be modified.
+     *
+     * @param lang language code
+     * @return field key
+     */
+    public Text get(final String lang)
+    {
+        Text key = mKeys.get(lang);
+        if (null == key) {
+            key = new Text(mPrefix + lang);
+            mKeys.put(lang, key);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Allocation-light parser for HTTP <code>Date</code> header values.
+ *
+ * Supports the three formats from RFC 7231 (IMF-fixdate, RFC 850 and ANSI C asctime),
+ * as well as common malformed variants found in older crawls, such as missing or full
+ * weekday names, single-digit days, dashes instead of spaces, numeric or non-GMT time zones,
+ * missing seconds, Java's <code>Date.toString()</code> format and ISO 8601 timestamps.
+ *
+ * Parsing is stateless, but formatting uses an internal buffer, so instances must not
+ * be shared between threads.
+ *
+ * @author Janek Bevendorff
+ */
+public class HttpDateParser
+{
+    /**
+     * Return value of {@link #parse(CharSequence)} for unparseable dates.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private final byte[] mIsoBuffer = new byte[20];
+
+    /**
+     * Parse an HTTP date.
+     *
+     * @param str date string
+     * @return seconds since the epoch or {@link #INVALID} if the date could not be parsed
+     */
+    public static long parse(final CharSequence str)
+    {
+        final Cursor c = new Cursor(str);
+        c.skip(" \t");
+
+        int year, month, day;
+        if (isAlpha(c.peek())) {
+            int token = c.readAlpha();
+            month = monthFromToken(token);
+            if (month < 0) {
+                // weekday name
+                c.skip(" ,\t");
+                if (isAlpha(c.peek())) {
+                    token = c.readAlpha();
+                    month = monthFromToken(token);
+                    if (month < 0) {
+                        return INVALID;
+                    }
+                }
+            }
+
+            if (month > 0) {
+                // asctime: Sun Nov  6 08:49:37 1994 (or Date.toString(): Sun Nov 06 08:49:37 GMT 1994)
+                c.skip(" \t");
+                day = c.readNumber(2);
+                c.skip(" \t");
+                final int secondsOfDay = c.readTime();
+                c.skip(" \t");
+                int offset = 0;
+                if (!isDigit(c.peek())) {
+                    offset = c.readZone();
+                    c.skip(" \t");
+                }
+                year = c.readNumber(4);
+                return toEpochSeconds(year, month, day, secondsOfDay, offset);
+            }
+        }
+
+        // IMF-fixdate: 06 Nov 1994 08:49:37 GMT, RFC 850: 06-Nov-94 08:49:37 GMT
+        final int start = c.mPos;
+        day = c.readNumber(4);
+        if (c.mPos - start == 4 && c.peek() == '-') {
+            // ISO 8601: 1994-11-06T08:49:37Z
+            year = day;
+            c.mPos++;
+            month = c.readNumber(2);
+            c.expect('-');
+            day = c.readNumber(2);
+            c.skip(" T\t");
+        } else {
+            c.skip(" -\t");
+            month = monthFromToken(c.readAlpha());
+            c.skip(" -\t");
+            year = c.readNumber(4);
+            c.skip(" \t");
+        }
+
+        final int secondsOfDay = c.readTime();
+        c.skip(" \t");
+        final int offset = c.atEnd() ? 0 : c.readZone();
+        return toEpochSeconds(year, month, day, secondsOfDay, offset);
+    }
+
+    /**
+     * Format a date as ISO 8601 UTC timestamp (<code>yyyy-MM-dd'T'HH:mm:ss'Z'</code>).
+     *
+     * @param epochSeconds seconds since the epoch
+     * @param target output Text (will be overwritten)
+     */
+    public void formatIso(final long epochSeconds, final Text target)
+    {
+        final long days = Math.floorDiv(epochSeconds, 86400L);
+        final int secondsOfDay = (int) Math.floorMod(epochSeconds, 86400L);
+
+        // civil date from days since epoch (H. Hinnant)
+        final long z = days + 719468;
+        final long era = Math.floorDiv(z, 146097);
+        final int doe = (int) (z - era * 146097);
+        final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final int mp = (5 * doy + 2) / 153;
+        final int day = doy - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+        final byte[] b = mIsoBuffer;
+        writeDigits(b, 0, year, 4);
+        b[4] = '-';
+        writeDigits(b, 5, month, 2);
+        b[7] = '-';
+        writeDigits(b, 8, day, 2);
+        b[10] = 'T';
+        writeDigits(b, 11, secondsOfDay / 3600, 2);
+        b[13] = ':';
+        writeDigits(b, 14, (secondsOfDay / 60) % 60, 2);
+        b[16] = ':';
+        writeDigits(b, 17, secondsOfDay % 60, 2);
+        b[19] = 'Z';
+        target.set(b, 0, b.length);
+    }
+
+    private static void writeDigits(final byte[] buffer, final int offset, int value, final int numDigits)
+    {
+        for (int i = offset + numDigits - 1; i >= offset; --i) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long toEpochSeconds(int year, final int month, final int day,
+                                       final int secondsOfDay, final int offset)
+    {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || secondsOfDay < 0 || offset == Integer.MIN_VALUE) {
+            return INVALID;
+        }
+
+        // RFC 7231 two-digit years
+        if (year < 100) {
+            year += year < 70 ? 2000 : 1900;
+        }
+        if (year < 1000 || year > 9999) {
+            return INVALID;
+        }
+
+        final boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        if (day > DAYS_IN_MONTH[month - 1] || (month == 2 && day == 29 && !leap)) {
+            return INVALID;
+        }
+
+        // days since epoch from civil date (H. Hinnant)
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = y / 400;
+        final int yoe = y - era * 400;
+        final int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        final long days = era * 146097L + doe - 719468;
+
+        return days * 86400L + secondsOfDay - offset;
+    }
+
+    /**
+     * @return month number (1-12) for a packed three-letter token or -1 if the token is no month
+     */
+    private static int monthFromToken(final int token)
+    {
+        switch (token) {
+            case ('j' << 16) | ('a' << 8) | 'n': return 1;
+            case ('f' << 16) | ('e' << 8) | 'b': return 2;
+            case ('m' << 16) | ('a' << 8) | 'r': return 3;
+            case ('a' << 16) | ('p' << 8) | 'r': return 4;
+            case ('m' << 16) | ('a' << 8) | 'y': return 5;
+            case ('j' << 16) | ('u' << 8) | 'n': return 6;
+            case ('j' << 16) | ('u' << 8) | 'l': return 7;
+            case ('a' << 16) | ('u' << 8) | 'g': return 8;
+            case ('s' << 16) | ('e' << 8) | 'p': return 9;
+            case ('o' << 16) | ('c' << 8) | 't': return 10;
+            case ('n' << 16) | ('o' << 8) | 'v': return 11;
+            case ('d' << 16) | ('e' << 8) | 'c': return 12;
+            default: return -1;
+        }
+    }
+
+    private static boolean isAlpha(final int c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(final int c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Read position within the input string. Errors are signalled through negative
+     * return values, which {@link #toEpochSeconds(int, int, int, int, int)} rejects.
+     */
+    private static final class Cursor
+    {
+        private final CharSequence mStr;
+        private int mPos = 0;
+
+        private Cursor(final CharSequence str)
+        {
+            mStr = str;
+        }
+
+        private boolean atEnd()
+        {
+            return mPos >= mStr.length();
+        }
+
+        private int peek()
+        {
+            return atEnd() ? -1 : mStr.charAt(mPos);
+        }
+
+        private void skip(final String chars)
+        {
+            while (!atEnd() && chars.indexOf(mStr.charAt(mPos)) != -1) {
+                ++mPos;
+            }
+        }
+
+        private void expect(final char c)
+        {
+            if (peek() == c) {
+                ++mPos;
+            } else {
+                mPos = mStr.length();
+            }
+        }
+
+        /**
+         * Read a run of letters and pack the first three of them lower-cased into an int.
+         */
+        private int readAlpha()
+        {
+            int token = 0;
+            int len = 0;
+            while (isAlpha(peek())) {
+                if (len++ < 3) {
+                    token = (token << 8) | (mStr.charAt(mPos) | 0x20);
+                }
+                ++mPos;
+            }
+            return len >= 3 ? token : -1;
+        }
+
+        private int readNumber(final int maxDigits)
+        {
+            int value = 0;
+            int len = 0;
+            while (len < maxDigits && isDigit(peek())) {
+                value = value * 10 + (mStr.charAt(mPos++) - '0');
+                ++len;
+            }
+            return len > 0 ? value : -1;
+        }
+
+        /**
+         * Read HH:mm[:ss] and return seconds of day.
+         */
+        private int readTime()
+        {
+            final int hours = readNumber(2);
+            expect(':');
+            final int minutes = readNumber(2);
+            int seconds = 0;
+            if (peek() == ':') {
+                ++mPos;
+                seconds = readNumber(2);
+            }
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 60) {
+                return -1;
+            }
+            return hours * 3600 + minutes * 60 + Math.min(seconds, 59);
+        }
+
+        /**
+         * Read a time zone designator and return its offset from UTC in seconds.
+         * Unknown zone names are treated as GMT.
+         */
+        private int readZone()
+        {
+            int offset = 0;
+            if (isAlpha(peek())) {
+                final int start = mPos;
+                while (isAlpha(peek())) {
+                    ++mPos;
+                }
+                offset = namedZoneOffset(start, mPos - start);
+            }
+
+            final int sign = peek();
+            if (sign == '+' || sign == '-') {
+                ++mPos;
+                final int hours = readNumber(2);
+                int minutes = 0;
+                if (peek() == ':') {
+                    ++mPos;
+                }
+                if (isDigit(peek())) {
+                    minutes = readNumber(2);
+                }
+                if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+                    return Integer.MIN_VALUE;
+                }
+                offset += (sign == '-' ? -1 : 1) * (hours * 3600 + minutes * 60);
+            }
+            return offset;
+        }
+
+        private int namedZoneOffset(final int start, final int len)
+        {
+            if (len < 3) {
+                // Z, UT
+                return 0;
+            }
+
+            int token = 0;
+            for (int i = start; i < start + Math.min(len, 4); ++i) {
+                token = (token << 8) | (mStr.charAt(i) | 0x20);
+            }
+            switch (token) {
+                case ('e' << 16) | ('s' << 8) | 't': return -5 * 3600;
+                case ('e' << 16) | ('d' << 8) | 't': return -4 * 3600;
+                case ('c' << 16) | ('s' << 8) | 't': return -6 * 3600;
+                case ('c' << 16) | ('d' << 8) | 't': return -5 * 3600;
+                case ('m' << 16) | ('s' << 8) | 't': return -7 * 3600;
+                case ('m' << 16) | ('d' << 8) | 't': return -6 * 3600;
+                case ('p' << 16) | ('s' << 8) | 't': return -8 * 3600;
+                case ('p' << 16) | ('d' << 8) | 't': return -7 * 3600;
+                case ('c' << 16) | ('e' << 8) | 't': return 3600;
+                case ('c' << 24) | ('e' << 16) | ('s' << 8) | 't': return 2 * 3600;
+                default: return 0;
+            }
+        }
+    }
+}
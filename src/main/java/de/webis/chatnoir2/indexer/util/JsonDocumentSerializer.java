@@ -0,0 +1,255 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.io.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serializer for output documents which writes a {@link MapWritable} directly as UTF-8 JSON
+ * into a reusable buffer. Field names are encoded only once and {@link Text} values are escaped
+ * on their raw UTF-8 bytes without decoding them to Java strings first.
+ *
+ * The serialized document can be passed to es-hadoop as-is with <code>es.input.json=true</code>.
+ *
+ * @author Janek Bevendorff
+ */
+public class JsonDocumentSerializer
+{
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL_BYTES = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private final HashMap<Text, byte[]> mFieldNames = new HashMap<>();
+    private byte[] mBuffer = new byte[65536];
+    private int mLength = 0;
+
+    /**
+     * Serialize a document.
+     *
+     * @param document document fields
+     * @param target text to write the serialized JSON to
+     */
+    public void serialize(final MapWritable document, final Text target)
+    {
+        mLength = 0;
+        put('{');
+        boolean first = true;
+        for (final Map.Entry<Writable, Writable> entry : document.entrySet()) {
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            putBytes(getFieldName(entry.getKey()));
+            putValue(entry.getValue());
+        }
+        put('}');
+        target.set(mBuffer, 0, mLength);
+    }
+
+    /**
+     * Get the encoded field name including quotes and colon.
+     */
+    private byte[] getFieldName(final Writable key)
+    {
+        final Text textKey = key instanceof Text ? (Text) key : new Text(key.toString());
+        byte[] name = mFieldNames.get(textKey);
+        if (null == name) {
+            final int start = mLength;
+            putString(textKey.getBytes(), textKey.getLength());
+            put(':');
+            name = new byte[mLength - start];
+            System.arraycopy(mBuffer, start, name, 0, name.length);
+            mLength = start;
+            mFieldNames.put(new Text(textKey), name);
+        }
+        return name;
+    }
+
+    private void putValue(final Writable value)
+    {
+        if (value instanceof Text) {
+            putString(((Text) value).getBytes(), ((Text) value).getLength());
+        } else if (value instanceof LongWritable) {
+            putLong(((LongWritable) value).get());
+        } else if (value instanceof IntWritable) {
+            putLong(((IntWritable) value).get());
+        } else if (value instanceof FloatWritable) {
+            putFloat(((FloatWritable) value).get());
+        } else if (value instanceof DoubleWritable) {
+            putDouble(((DoubleWritable) value).get());
+        } else if (value instanceof BooleanWritable) {
+            putAscii(Boolean.toString(((BooleanWritable) value).get()));
+        } else if (value instanceof ArrayWritable) {
+            put('[');
+            final Writable[] values = ((ArrayWritable) value).get();
+            for (int i = 0; i < values.length; ++i) {
+                if (i > 0) {
+                    put(',');
+                }
+                putValue(values[i]);
+            }
+            put(']');
+        } else if (null == value || value instanceof NullWritable) {
+            putBytes(NULL_BYTES);
+        } else {
+            final byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            putString(bytes, bytes.length);
+        }
+    }
+
+    /**
+     * Write a quoted and escaped JSON string from UTF-8 bytes. Multi-byte sequences need no escaping
+     * and are copied as they are.
+     */
+    private void putString(final byte[] bytes, final int length)
+    {
+        ensureCapacity(length + 2);
+        mBuffer[mLength++] = '"';
+        int runStart = 0;
+        for (int i = 0; i < length; ++i) {
+            final int b = bytes[i] & 0xff;
+            if (b >= 0x20 && b != '"' && b != '\\') {
+                continue;
+            }
+
+            // flush unescaped run and write escape sequence
+            putBytes(bytes, runStart, i - runStart);
+            runStart = i + 1;
+            ensureCapacity(6);
+            mBuffer[mLength++] = '\\';
+            switch (b) {
+                case '"':
+                case '\\':
+                    mBuffer[mLength++] = (byte) b;
+                    break;
+                case '\n':
+                    mBuffer[mLength++] = 'n';
+                    break;
+                case '\r':
+                    mBuffer[mLength++] = 'r';
+                    break;
+                case '\t':
+                    mBuffer[mLength++] = 't';
+                    break;
+                case '\b':
+                    mBuffer[mLength++] = 'b';
+                    break;
+                case '\f':
+                    mBuffer[mLength++] = 'f';
+                    break;
+                default:
+                    mBuffer[mLength++] = 'u';
+                    mBuffer[mLength++] = '0';
+                    mBuffer[mLength++] = '0';
+                    mBuffer[mLength++] = HEX_DIGITS[b >>> 4];
+                    mBuffer[mLength++] = HEX_DIGITS[b & 0xf];
+            }
+        }
+        putBytes(bytes, runStart, length - runStart);
+        put('"');
+    }
+
+    private void putLong(long value)
+    {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            mBuffer[mLength++] = '-';
+            value = -value;
+        }
+        final int start = mLength;
+        do {
+            mBuffer[mLength++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        // digits were written in reverse order
+        for (int i = start, j = mLength - 1; i < j; ++i, --j) {
+            final byte tmp = mBuffer[i];
+            mBuffer[i] = mBuffer[j];
+            mBuffer[j] = tmp;
+        }
+    }
+
+    private void putFloat(final float value)
+    {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            putBytes(NULL_BYTES);
+        } else {
+            putAscii(Float.toString(value));
+        }
+    }
+
+    private void putDouble(final double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            putBytes(NULL_BYTES);
+        } else {
+            putAscii(Double.toString(value));
+        }
+    }
+
+    private void putAscii(final String str)
+    {
+        ensureCapacity(str.length());
+        for (int i = 0; i < str.length(); ++i) {
+            mBuffer[mLength++] = (byte) str.charAt(i);
+        }
+    }
+
+    private void putBytes(final byte[] bytes)
+    {
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    private void putBytes(final byte[] bytes, final int offset, final int length)
+    {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, mBuffer, mLength, length);
+        mLength += length;
+    }
+
+    private void put(final char c)
+    {
+        ensureCapacity(1);
+        mBuffer[mLength++] = (byte) c;
+    }
+
+    private void ensureCapacity(final int additional)
+    {
+        if (mLength + additional > mBuffer.length) {
+            final byte[] newBuffer = new byte[Math.max(mBuffer.length * 2, mLength + additional)];
+            System.arraycopy(mBuffer, 0, newBuffer, 0, mLength);
+            mBuffer = newBuffer;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Bloom filter for 128-bit (UUID) keys. Since the keys are already uniformly distributed
+ * hashes, their two halves are used directly as the two base hashes for double hashing.
+ *
+ * Filters of the same size can be merged, so partial filters can be built in parallel.
+ *
+ * @author Janek Bevendorff
+ */
+public class KeyBloomFilter implements Writable
+{
+    private long[] mBits = new long[0];
+    private long mNumBits;
+    private int mNumHashes;
+
+    public KeyBloomFilter()
+    {
+    }
+
+    /**
+     * @param numBits number of bits (will be rounded up to a multiple of 64)
+     * @param numHashes number of hash functions
+     */
+    public KeyBloomFilter(final long numBits, final int numHashes)
+    {
+        final int numWords = (int) Math.max(1, (numBits + 63) / 64);
+        mBits = new long[numWords];
+        mNumBits = (long) numWords * 64;
+        mNumHashes = Math.max(1, numHashes);
+    }
+
+    /**
+     * Calculate the optimal number of bits for a filter.
+     *
+     * @param expectedKeys expected number of keys
+     * @param falsePositiveRate desired false positive rate
+     * @return number of bits
+     */
+    public static long optimalNumBits(final long expectedKeys, final double falsePositiveRate)
+    {
+        return (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    }
+
+    /**
+     * Calculate the optimal number of hash functions for a filter.
+     *
+     * @param expectedKeys expected number of keys
+     * @param numBits number of bits
+     * @return number of hash functions
+     */
+    public static int optimalNumHashes(final long expectedKeys, final long numBits)
+    {
+        return (int) Math.max(1, Math.round((double) numBits / Math.max(1, expectedKeys) * Math.log(2)));
+    }
+
+    /**
+     * Add a key to the filter.
+     *
+     * @param msb most significant bits of the key
+     * @param lsb least significant bits of the key
+     */
+    public void add(final long msb, final long lsb)
+    {
+        long h = msb;
+        for (int i = 0; i < mNumHashes; ++i) {
+            final long bit = Long.remainderUnsigned(h, mNumBits);
+            mBits[(int) (bit >>> 6)] |= 1L << bit;
+            h += lsb;
+        }
+    }
+
+    /**
+     * Check whether a key might be contained in the filter.
+     *
+     * @param msb most significant bits of the key
+     * @param lsb least significant bits of the key
+     * @return false if the key is definitely not contained in the filter
+     */
+    public boolean mightContain(final long msb, final long lsb)
+    {
+        long h = msb;
+        for (int i = 0; i < mNumHashes; ++i) {
+            final long bit = Long.remainderUnsigned(h, mNumBits);
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+            h += lsb;
+        }
+        return true;
+    }
+
+    /**
+     * Merge another filter of the same size into this filter.
+     *
+     * @param other filter to merge
+     */
+    public void merge(final KeyBloomFilter other)
+    {
+        if (other.mNumBits != mNumBits || other.mNumHashes != mNumHashes) {
+            throw new IllegalArgumentException("Cannot merge Bloom filters of different sizes");
+        }
+        for (int i = 0; i < mBits.length; ++i) {
+            mBits[i] |= other.mBits[i];
+        }
+    }
+
+    public long getNumBits()
+    {
+        return mNumBits;
+    }
+
+    public int getNumHashes()
+    {
+        return mNumHashes;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException
+    {
+        out.writeInt(mNumHashes);
+        out.writeInt(mBits.length);
+        for (final long word : mBits) {
+            out.writeLong(word);
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException
+    {
+        mNumHashes = in.readInt();
+        final int numWords = in.readInt();
+        if (mBits.length != numWords) {
+            mBits = new long[numWords];
+        }
+        for (int i = 0; i < numWords; ++i) {
+            mBits[i] = in.readLong();
+        }
+        mNumBits = (long) numWords * 64;
+    }
+}
@@ -33,20 +33,30 @@ import java.util.Locale;
 /**
  * Language detection helper class.
  *
+ * Language profiles take a lot of heap and time to load, so there is only one shared instance per JVM,
+ * which loads them lazily on the first detection. Tasks which never get to language detection (e.g. because
+ * all their records are filtered, not sampled or not replayed) don't load them at all.
+ *
  * @author Janek Bevendorff
  */
 public class LangDetector
 {
+    private static final LangDetector INSTANCE = new LangDetector();
 
-    private final LanguageDetector mDetector = new LanguageDetector();
+    private volatile LanguageDetector mDetector = null;
+
+    private LangDetector()
+    {
+    }
 
     /**
-     * Create language detector for given context.
+     * Get the shared language detector instance.
      *
-     * @throws IOException if failed to load language resources
+     * @return language detector
      */
-    public LangDetector() throws IOException
+    public static LangDetector getInstance()
     {
+        return INSTANCE;
     }
 
     /**
@@ -54,11 +64,28 @@ public class LangDetector
      *
      * @param str the string whose language to detect
      * @return detected ISO language code
-     * @throws IOException if language detection fails
+     * @throws IOException if language resources cannot be loaded or language detection fails
      */
     public String detect(final String str) throws IOException
     {
-        Locale language = mDetector.detect(str);
+        Locale language = getDetector().detect(str);
         return language.getLanguage();
     }
+
+    /**
+     * Get the underlying detector, loading the language profiles if necessary.
+     */
+    private LanguageDetector getDetector() throws IOException
+    {
+        LanguageDetector detector = mDetector;
+        if (null == detector) {
+            synchronized (this) {
+                if (null == mDetector) {
+                    mDetector = new LanguageDetector();
+                }
+                detector = mDetector;
+            }
+        }
+        return detector;
+    }
 }
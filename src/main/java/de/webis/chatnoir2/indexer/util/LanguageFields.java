@@ -0,0 +1,134 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Bounded set of languages which get their own language-specific fields (e.g. <code>body_lang.de</code>).
+ * Text in any other language goes into the shared fallback fields (e.g. <code>body_lang.unknown</code>),
+ * so rare languages don't add new fields to the index mapping.
+ *
+ * @author Janek Bevendorff
+ */
+public class LanguageFields
+{
+    public static final String CONF_LANGUAGES = "webis.indexer.languages";
+
+    /**
+     * Languages with analyzers in the default index template.
+     */
+    public static final String DEFAULT_LANGUAGES =
+            "ar,bg,ca,cs,da,de,el,en,es,fa,fi,fr,hu,it,ja,ko,lt,nl,no,pl,pt,ro,ru,sv,th,tr,zh";
+
+    /**
+     * Field language for all unsupported languages and failed detections.
+     */
+    public static final String FALLBACK = "unknown";
+
+    private final Set<String> mLanguages = new LinkedHashSet<>();
+
+    /**
+     * @param conf job configuration with optional comma-separated list of supported languages
+     */
+    public LanguageFields(final Configuration conf)
+    {
+        for (final String lang : conf.getTrimmedStrings(CONF_LANGUAGES, DEFAULT_LANGUAGES.split(","))) {
+            if (!lang.isEmpty()) {
+                mLanguages.add(lang.toLowerCase());
+            }
+        }
+    }
+
+    /**
+     * Get the field language for a detected language.
+     *
+     * @param lang detected language code
+     * @return the language itself if it is supported, otherwise {@link #FALLBACK}
+     */
+    public String get(final String lang)
+    {
+        return mLanguages.contains(lang) ? lang : FALLBACK;
+    }
+
+    /**
+     * @return supported languages (without fallback)
+     */
+    public Set<String> getLanguages()
+    {
+        return Collections.unmodifiableSet(mLanguages);
+    }
+
+    /**
+     * Add all language-specific fields to the mapping of an index before indexing starts, so the
+     * mapping isn't updated while documents are being ingested. This is done by indexing a single
+     * document with empty values for all fields, which are then mapped by the index template's
+     * dynamic templates, and deleting it again right away.
+     *
+     * @param conf job configuration
+     * @param index index name
+     * @param fieldPrefixes prefixes of language-specific fields (e.g. <code>body_lang.</code>)
+     * @throws IOException if the document could not be indexed
+     */
+    public void createMappings(final Configuration conf, final String index,
+                               final String... fieldPrefixes) throws IOException
+    {
+        final JSONObject document = new JSONObject();
+        for (final String prefix : fieldPrefixes) {
+            for (final String lang : mLanguages) {
+                document.put(prefix + lang, "");
+            }
+            document.put(prefix + FALLBACK, "");
+        }
+
+        final String docPath = index + "/_doc/chatnoir-mapping-warmup";
+        final HttpURLConnection connection = EsHttp.open(conf, "PUT", docPath);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(document.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() / 100 != 2) {
+            throw new IOException(String.format("Failed to create field mappings for index '%s': HTTP %d",
+                    index, connection.getResponseCode()));
+        }
+
+        final HttpURLConnection deleteConnection = EsHttp.open(conf, "DELETE", docPath);
+        if (deleteConnection.getResponseCode() / 100 != 2) {
+            throw new IOException(String.format("Failed to delete mapping document from index '%s': HTTP %d",
+                    index, deleteConnection.getResponseCode()));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Static document quality score in the range [0, 1] derived from spam rank, PageRank and body length.
+ *
+ * The spam rank (a percentile from 0 to 99, where lower values are more likely spam) is normalized
+ * linearly, the PageRank and the body length are normalized with the saturating function
+ * <code>x / (x + pivot)</code>. All are combined as a weighted average. Documents without spam rank
+ * get a neutral spam score of 0.5, documents without PageRank or body length a score of 0 for it.
+ * The body length has no weight by default.
+ *
+ * @author Janek Bevendorff
+ */
+public class QualityScore
+{
+    public static final String CONF_SPAM_WEIGHT     = "webis.indexer.quality.spam.weight";
+    public static final String CONF_PAGERANK_WEIGHT = "webis.indexer.quality.pagerank.weight";
+    public static final String CONF_PAGERANK_PIVOT  = "webis.indexer.quality.pagerank.pivot";
+    public static final String CONF_LENGTH_WEIGHT   = "webis.indexer.quality.length.weight";
+    public static final String CONF_LENGTH_PIVOT    = "webis.indexer.quality.length.pivot";
+
+    private final double mSpamWeight;
+    private final double mPageRankWeight;
+    private final double mPageRankPivot;
+    private final double mLengthWeight;
+    private final double mLengthPivot;
+
+    /**
+     * @param conf job configuration with optional weights and pivots
+     */
+    public QualityScore(final Configuration conf)
+    {
+        this(conf.getDouble(CONF_SPAM_WEIGHT, 0.5),
+                conf.getDouble(CONF_PAGERANK_WEIGHT, 0.5),
+                conf.getDouble(CONF_PAGERANK_PIVOT, 1.0),
+                conf.getDouble(CONF_LENGTH_WEIGHT, 0.0),
+                conf.getDouble(CONF_LENGTH_PIVOT, 2000.0));
+    }
+
+    /**
+     * @param spamWeight weight of the spam rank
+     * @param pageRankWeight weight of the PageRank
+     * @param pageRankPivot PageRank value which is mapped to a score of 0.5
+     */
+    public QualityScore(final double spamWeight, final double pageRankWeight, final double pageRankPivot)
+    {
+        this(spamWeight, pageRankWeight, pageRankPivot, 0.0, 2000.0);
+    }
+
+    /**
+     * @param spamWeight weight of the spam rank
+     * @param pageRankWeight weight of the PageRank
+     * @param pageRankPivot PageRank value which is mapped to a score of 0.5
+     * @param lengthWeight weight of the body length
+     * @param lengthPivot body length in characters which is mapped to a score of 0.5
+     */
+    public QualityScore(final double spamWeight, final double pageRankWeight, final double pageRankPivot,
+                        final double lengthWeight, final double lengthPivot)
+    {
+        final double weightSum = spamWeight + pageRankWeight + lengthWeight;
+        mSpamWeight     = weightSum > 0.0 ? spamWeight / weightSum : 0.5;
+        mPageRankWeight = weightSum > 0.0 ? pageRankWeight / weightSum : 0.5;
+        mLengthWeight   = weightSum > 0.0 ? lengthWeight / weightSum : 0.0;
+        mPageRankPivot  = pageRankPivot > 0.0 ? pageRankPivot : 1.0;
+        mLengthPivot    = lengthPivot > 0.0 ? lengthPivot : 2000.0;
+    }
+
+    /**
+     * Calculate quality score.
+     *
+     * @param spamRank spam rank percentile (0-99) or a negative number if unknown
+     * @param pageRank PageRank or a negative number if unknown
+     * @return quality score between 0 and 1
+     */
+    public double score(final long spamRank, final double pageRank)
+    {
+        return score(spamRank, pageRank, -1);
+    }
+
+    /**
+     * Calculate quality score.
+     *
+     * @param spamRank spam rank percentile (0-99) or a negative number if unknown
+     * @param pageRank PageRank or a negative number if unknown
+     * @param bodyLength body length in characters or a negative number if unknown
+     * @return quality score between 0 and 1
+     */
+    public double score(final long spamRank, final double pageRank, final long bodyLength)
+    {
+        final double spamScore = spamRank >= 0 ? Math.min(spamRank, 99) / 99.0 : 0.5;
+        final double pageRankScore = pageRank > 0.0 ? pageRank / (pageRank + mPageRankPivot) : 0.0;
+        final double lengthScore = bodyLength > 0 ? bodyLength / (bodyLength + mLengthPivot) : 0.0;
+        return mSpamWeight * spamScore + mPageRankWeight * pageRankScore + mLengthWeight * lengthScore;
+    }
+}
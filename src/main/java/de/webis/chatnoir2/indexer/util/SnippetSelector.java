@@ -0,0 +1,237 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Selects a bounded number of snippet candidate sentences from the extracted main content of a document,
+ * so snippets can be generated without highlighting the whole body.
+ *
+ * The leading sentences of a document are always selected, the remaining slots are filled with the
+ * sentences carrying the most information. The information of a sentence is the sum of the inverse
+ * sentence frequencies of its distinct words within the document, normalized by the square root of
+ * its word count, so sentences with many specific terms are preferred over long and repetitive ones.
+ * Selected sentences are returned in document order.
+ *
+ * @author Janek Bevendorff
+ */
+public class SnippetSelector
+{
+    public static final String CONF_LEADING   = "webis.indexer.snippets.leading";
+    public static final String CONF_MAX       = "webis.indexer.snippets.max";
+    public static final String CONF_MAX_CHARS = "webis.indexer.snippets.max.chars";
+
+    /**
+     * Sentences shorter than this are not selected.
+     */
+    public static final int MIN_SENTENCE_LENGTH = 30;
+
+    /**
+     * Sentences are truncated after this many characters.
+     */
+    public static final int MAX_SENTENCE_LENGTH = 300;
+
+    private final int mLeading;
+    private final int mMax;
+    private final int mMaxChars;
+
+    private final HashMap<String, int[]> mSentenceFrequencies = new HashMap<>();
+    private final ArrayList<HashSet<String>> mSentenceWords = new ArrayList<>();
+    private final ArrayList<String> mWords = new ArrayList<>();
+
+    /**
+     * @param conf job configuration with optional snippet limits
+     */
+    public SnippetSelector(final Configuration conf)
+    {
+        this(conf.getInt(CONF_LEADING, 2), conf.getInt(CONF_MAX, 6), conf.getInt(CONF_MAX_CHARS, 1200));
+    }
+
+    /**
+     * @param leading number of leading sentences to select
+     * @param max maximum total number of sentences
+     * @param maxChars maximum total number of characters
+     */
+    public SnippetSelector(final int leading, final int max, final int maxChars)
+    {
+        mLeading  = Math.max(0, Math.min(leading, max));
+        mMax      = Math.max(0, max);
+        mMaxChars = Math.max(0, maxChars);
+    }
+
+    /**
+     * Select snippet candidate sentences.
+     *
+     * @param sentences extracted sentences in document order
+     * @return selected sentences in document order, separated by newlines (may be empty)
+     */
+    public String select(final List<String> sentences)
+    {
+        final int numSentences = sentences.size();
+        if (0 == numSentences || 0 == mMax || 0 == mMaxChars) {
+            return "";
+        }
+
+        final boolean[] selected = new boolean[numSentences];
+        int numSelected = 0;
+        int numChars = 0;
+
+        // leading sentences
+        for (int i = 0; i < numSentences && numSelected < mLeading; ++i) {
+            final int length = Math.min(sentences.get(i).length(), MAX_SENTENCE_LENGTH);
+            if (length < MIN_SENTENCE_LENGTH) {
+                continue;
+            }
+            if (numChars + length > mMaxChars) {
+                break;
+            }
+            selected[i] = true;
+            ++numSelected;
+            numChars += length;
+        }
+
+        // high-information sentences
+        if (numSelected < mMax) {
+            final double[] scores = scoreSentences(sentences);
+            final Integer[] order = new Integer[numSentences];
+            for (int i = 0; i < numSentences; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+            for (final int i : order) {
+                if (numSelected >= mMax) {
+                    break;
+                }
+                final int length = Math.min(sentences.get(i).length(), MAX_SENTENCE_LENGTH);
+                if (selected[i] || length < MIN_SENTENCE_LENGTH || scores[i] <= 0.0 ||
+                        numChars + length > mMaxChars) {
+                    continue;
+                }
+                selected[i] = true;
+                ++numSelected;
+                numChars += length;
+            }
+        }
+
+        final StringBuilder snippets = new StringBuilder(numChars + numSelected);
+        for (int i = 0; i < numSentences; ++i) {
+            if (!selected[i]) {
+                continue;
+            }
+            if (snippets.length() > 0) {
+                snippets.append('\n');
+            }
+            snippets.append(truncate(sentences.get(i)));
+        }
+        return snippets.toString();
+    }
+
+    /**
+     * Calculate the information score of each sentence.
+     *
+     * @param sentences sentences of one document
+     * @return scores in sentence order
+     */
+    private double[] scoreSentences(final List<String> sentences)
+    {
+        final int numSentences = sentences.size();
+        mSentenceFrequencies.clear();
+        while (mSentenceWords.size() < numSentences) {
+            mSentenceWords.add(new HashSet<>());
+        }
+
+        final int[] numWords = new int[numSentences];
+        for (int i = 0; i < numSentences; ++i) {
+            final HashSet<String> words = mSentenceWords.get(i);
+            words.clear();
+            tokenize(sentences.get(i));
+            numWords[i] = mWords.size();
+            words.addAll(mWords);
+            for (final String word : words) {
+                mSentenceFrequencies.computeIfAbsent(word, w -> new int[1])[0]++;
+            }
+        }
+
+        final double[] scores = new double[numSentences];
+        for (int i = 0; i < numSentences; ++i) {
+            if (0 == numWords[i]) {
+                continue;
+            }
+            double information = 0.0;
+            for (final String word : mSentenceWords.get(i)) {
+                information += Math.log((double) numSentences / mSentenceFrequencies.get(word)[0]) + 1.0;
+            }
+            scores[i] = information / Math.sqrt(numWords[i]);
+        }
+        return scores;
+    }
+
+    /**
+     * Split a sentence into lower-case words of at least three letters or digits.
+     *
+     * @param sentence sentence to tokenize
+     */
+    private void tokenize(final String sentence)
+    {
+        mWords.clear();
+        int start = -1;
+        for (int i = 0; i <= sentence.length(); ++i) {
+            final boolean wordChar = i < sentence.length() && Character.isLetterOrDigit(sentence.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= 3) {
+                    mWords.add(sentence.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Truncate a sentence to {@link #MAX_SENTENCE_LENGTH} characters at a word boundary.
+     *
+     * @param sentence sentence to truncate
+     * @return truncated sentence
+     */
+    private static String truncate(final String sentence)
+    {
+        if (sentence.length() <= MAX_SENTENCE_LENGTH) {
+            return sentence;
+        }
+        final int pos = sentence.lastIndexOf(' ', MAX_SENTENCE_LENGTH);
+        return sentence.substring(0, pos >= MAX_SENTENCE_LENGTH / 2 ? pos : MAX_SENTENCE_LENGTH);
+    }
+}
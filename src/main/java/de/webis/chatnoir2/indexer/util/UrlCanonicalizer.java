@@ -0,0 +1,143 @@
+/*
+ * ChatNoir Indexing Backend.
+ * Copyright (C) 2014-2017 Janek Bevendorff, Webis Group
+ *
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use, copy,
+ * modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package de.webis.chatnoir2.indexer.util;
+
+/**
+ * Canonicalizer for URLs used as join keys.
+ *
+ * Canonicalization lower-cases the scheme and host name, strips user info, trailing dots
+ * of the host name, default ports, fragments and trailing slashes of the path, and adds
+ * an empty path ("/") if there is none. Everything else (path and query case,
+ * percent-encoding, parameter order) is left untouched.
+ *
+ * @author Janek Bevendorff
+ */
+public class UrlCanonicalizer
+{
+    /**
+     * Canonicalize an absolute HTTP(S) URL.
+     *
+     * @param url input URL
+     * @return canonical URL or null if the input is no absolute HTTP(S) URL
+     */
+    public static String canonicalize(final String url)
+    {
+        final int len = url.length();
+        int start = 0;
+        while (start < len && url.charAt(start) <= ' ') {
+            ++start;
+        }
+        int end = len;
+        while (end > start && url.charAt(end - 1) <= ' ') {
+            --end;
+        }
+
+        final int schemeEnd = url.indexOf("://", start);
+        if (schemeEnd < 0 || schemeEnd > end) {
+            return null;
+        }
+        final String scheme = url.substring(start, schemeEnd).toLowerCase();
+        final String defaultPort;
+        if (scheme.equals("http")) {
+            defaultPort = "80";
+        } else if (scheme.equals("https")) {
+            defaultPort = "443";
+        } else {
+            return null;
+        }
+
+        // strip fragment
+        final int fragment = url.indexOf('#', schemeEnd + 3);
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+
+        final int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < end && url.charAt(authorityEnd) != '/' && url.charAt(authorityEnd) != '?') {
+            ++authorityEnd;
+        }
+
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1);
+        hostStart = hostStart >= authorityStart ? hostStart + 1 : authorityStart;
+        int hostEnd = authorityEnd;
+        String port = null;
+        final int portSep = url.lastIndexOf(':', authorityEnd - 1);
+        if (portSep >= hostStart && url.indexOf(']', portSep) < 0) {
+            hostEnd = portSep;
+            port = url.substring(portSep + 1, authorityEnd);
+        }
+        while (hostEnd > hostStart && url.charAt(hostEnd - 1) == '.') {
+            --hostEnd;
+        }
+        if (hostEnd <= hostStart) {
+            return null;
+        }
+
+        final StringBuilder sb = new StringBuilder(end - start + 1);
+        sb.append(scheme).append("://");
+        for (int i = hostStart; i < hostEnd; ++i) {
+            sb.append(Character.toLowerCase(url.charAt(i)));
+        }
+        if (null != port && !port.isEmpty() && !port.equals(defaultPort)) {
+            sb.append(':').append(port);
+        }
+
+        int pathEnd = authorityEnd;
+        while (pathEnd < end && url.charAt(pathEnd) != '?') {
+            ++pathEnd;
+        }
+        int trimmedPathEnd = pathEnd;
+        while (trimmedPathEnd > authorityEnd + 1 && url.charAt(trimmedPathEnd - 1) == '/') {
+            --trimmedPathEnd;
+        }
+        if (trimmedPathEnd == authorityEnd) {
+            sb.append('/');
+        } else {
+            sb.append(url, authorityEnd, trimmedPathEnd);
+        }
+
+        // keep non-empty query strings
+        if (pathEnd + 1 < end) {
+            sb.append(url, pathEnd, end);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Get the host name (including port, if any) of a canonical URL.
+     *
+     * @param canonicalUrl URL returned by {@link #canonicalize(String)}
+     * @return host name
+     */
+    public static String host(final String canonicalUrl)
+    {
+        final int hostStart = canonicalUrl.indexOf("://") + 3;
+        final int hostEnd = canonicalUrl.indexOf('/', hostStart);
+        return canonicalUrl.substring(hostStart, hostEnd >= 0 ? hostEnd : canonicalUrl.length());
+    }
+}